@@ -0,0 +1,72 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+# Compares a JVM-based fork with and without its AppCDS archive (see create_cds_archive.sh) on each of the given
+# files: the mean time until the first byte of output, i.e. the first result row, and the mean total time of RUNS runs
+# (default 5), e.g.
+#   ./create_measurements.sh 1000000 && mv measurements.txt measurements-1m.txt
+#   ./create_cds_archive.sh slovdahl
+#   ./benchmark_cds.sh slovdahl measurements-1m.txt measurements.txt
+
+set -eo pipefail
+
+if [ -z "$2" ]
+  then
+    echo "Usage: benchmark_cds.sh <fork> <file> (<file> ...)"
+    exit 1
+fi
+
+FORK=$1
+shift
+RUNS=${RUNS:-5}
+
+if [ ! -f "target/cds/$FORK.jsa" ]; then
+  echo "Error: target/cds/$FORK.jsa not found, run create_cds_archive.sh $FORK first." >&2
+  exit 1
+fi
+
+# Runs in a scratch directory, so that ./measurements.txt and its sidecar files are left alone.
+WORK_DIR=$(mktemp -d)
+trap 'rm -rf "$WORK_DIR"' EXIT
+ln -s "$(realpath target)" "$WORK_DIR/target"
+ln -s "$(realpath "calculate_average_$FORK.sh")" "$WORK_DIR/calculate_average_$FORK.sh"
+ln -s "$(realpath run_with_cds.sh)" "$WORK_DIR/run_with_cds.sh"
+
+# Prints the milliseconds until the first byte of output and until the command exits.
+run_once() {
+  local start first end
+  start=$(date +%s%N)
+  first=$("$@" 2> /dev/null | { head -c 1 > /dev/null; date +%s%N; cat > /dev/null; })
+  end=$(date +%s%N)
+  echo "$(((first - start) / 1000000)) $(((end - start) / 1000000))"
+}
+
+# Usage: measure <label> <command> ...
+measure() {
+  local label=$1
+  shift
+  for _ in $(seq "$RUNS"); do
+    (cd "$WORK_DIR" && run_once "$@")
+  done | awk -v label="$label" '{ first += $1; total += $2 } END { printf "%-40s %10.0f ms %10.0f ms\n", label, first / NR, total / NR }'
+}
+
+printf "%-40s %13s %13s\n" "" "first row" "total"
+for file in "$@"; do
+  ln -sfn "$(realpath "$file")" "$WORK_DIR/measurements.txt"
+  measure "$(basename "$file"), without CDS" "./calculate_average_$FORK.sh"
+  measure "$(basename "$file"), with CDS" ./run_with_cds.sh "$FORK"
+done
@@ -0,0 +1,55 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+# Compares the values of one of slovdahl's system properties on ./measurements.txt with hyperfine, e.g.
+#   ./benchmark_slovdahl.sh interleave 0,1,2,3,4
+# Further arguments are passed on to hyperfine. Set MEASUREMENTS_FILE to benchmark another input, e.g. one with
+# 10K stations and long names:
+#   ./create_measurements3.sh 100000000
+#   MEASUREMENTS_FILE=measurements3.txt ./benchmark_slovdahl.sh stationTable hashmap,tiered
+
+set -eo pipefail
+
+if [ -z "$2" ]
+  then
+    echo "Usage: benchmark_slovdahl.sh <property> <value1,value2,...> (<hyperfine options> ...)"
+    exit 1
+fi
+
+PROPERTY=$1
+VALUES=$2
+shift 2
+
+if ! [ -x "$(command -v hyperfine)" ]; then
+  echo "Error: hyperfine is not installed." >&2
+  exit 1
+fi
+
+# Runs in a scratch directory, so that ./measurements.txt and its sidecar files are left alone.
+if [ -n "$MEASUREMENTS_FILE" ]; then
+  WORK_DIR=$(mktemp -d)
+  trap 'rm -rf "$WORK_DIR"' EXIT
+  ln -s "$(realpath "$MEASUREMENTS_FILE")" "$WORK_DIR/measurements.txt"
+  ln -s "$(realpath target)" "$WORK_DIR/target"
+  ln -s "$(realpath calculate_average_slovdahl.sh)" "$WORK_DIR/calculate_average_slovdahl.sh"
+  cd "$WORK_DIR"
+fi
+
+hyperfine --warmup 1 --runs 5 "$@" \
+  --parameter-list value "$VALUES" \
+  --command-name "-D$PROPERTY={value}" \
+  "JAVA_OPTS='-D$PROPERTY={value}' ./calculate_average_slovdahl.sh > /dev/null"
@@ -0,0 +1,62 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+# Compares slovdahl's native image, built with prepare_slovdahl_native.sh, with JVM mode: the mean wall-clock time
+# and the peak RSS of the given number of runs (default 5), both for a cold start on a small sample file, where start-up
+# dominates, and for ./measurements.txt, or MEASUREMENTS_FILE if set, e.g.
+#   ./prepare_slovdahl_native.sh
+#   MEASUREMENTS_FILE=measurements3.txt ./benchmark_slovdahl_native.sh 10
+# JAVA_OPTS is passed on, e.g. JAVA_OPTS=-DstationTable=tiered. Peak RSS is measured with GNU time, set GNU_TIME if it
+# isn't at /usr/bin/time.
+
+set -eo pipefail
+
+RUNS=${1:-5}
+GNU_TIME=${GNU_TIME:-/usr/bin/time}
+SAMPLE=src/test/resources/samples/measurements-10000-unique-keys.txt
+MEASUREMENTS_FILE=${MEASUREMENTS_FILE:-measurements.txt}
+
+if [ ! -f target/CalculateAverage_slovdahl_image ]; then
+  echo "Error: target/CalculateAverage_slovdahl_image not found, run prepare_slovdahl_native.sh first." >&2
+  exit 1
+fi
+if ! [ -x "$(command -v "$GNU_TIME")" ]; then
+  echo "Error: GNU time is not installed." >&2
+  exit 1
+fi
+
+# Runs in a scratch directory, so that ./measurements.txt and its sidecar files are left alone.
+WORK_DIR=$(mktemp -d)
+trap 'rm -rf "$WORK_DIR"' EXIT
+ln -s "$(realpath target)" "$WORK_DIR/target"
+ln -s "$(realpath calculate_average_slovdahl.sh)" "$WORK_DIR/calculate_average_slovdahl.sh"
+
+# Usage: measure <label> <input file> <FORCE_JVM value>
+measure() {
+  ln -sfn "$(realpath "$2")" "$WORK_DIR/measurements.txt"
+  : > "$WORK_DIR/times.txt"
+  for _ in $(seq "$RUNS"); do
+    (cd "$WORK_DIR" && FORCE_JVM=$3 "$GNU_TIME" -f "%e %M" -a -o times.txt ./calculate_average_slovdahl.sh > /dev/null 2>&1)
+  done
+  awk -v label="$1" '{ time += $1; if ($2 > rss) rss = $2 } END { printf "%-24s %8.3f s %10.1f MB\n", label, time / NR, rss / 1024 }' "$WORK_DIR/times.txt"
+}
+
+printf "%-24s %10s %13s\n" "" "mean time" "peak RSS"
+measure "JVM, start-up" "$SAMPLE" 1
+measure "native, start-up" "$SAMPLE" ""
+measure "JVM, $(basename "$MEASUREMENTS_FILE")" "$MEASUREMENTS_FILE" 1
+measure "native, $(basename "$MEASUREMENTS_FILE")" "$MEASUREMENTS_FILE" ""
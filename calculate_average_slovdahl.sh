@@ -15,8 +15,20 @@
 #  limitations under the License.
 #
 
-JAVA_OPTS="${JAVA_OPTS} --enable-preview -XX:+UnlockExperimentalVMOptions -XX:+UnlockDiagnosticVMOptions"
-JAVA_OPTS="${JAVA_OPTS} -Xmx8g -Xms8g"
-JAVA_OPTS="${JAVA_OPTS} -XX:+TrustFinalNonStaticFields -XX:-UseCompressedOops"
+if [ -f target/CalculateAverage_slovdahl_image ] && [ -z "$FORCE_JVM" ]; then
+    # Of JAVA_OPTS, only the system properties apply to the native image.
+    NATIVE_OPTS=""
+    for opt in ${JAVA_OPTS}; do
+        case "$opt" in
+            -D*) NATIVE_OPTS="${NATIVE_OPTS} $opt" ;;
+        esac
+    done
+    echo "Picking up existing native image 'target/CalculateAverage_slovdahl_image', delete the file or set FORCE_JVM=1 to select JVM mode." 1>&2
+    target/CalculateAverage_slovdahl_image $NATIVE_OPTS "$@"
+else
+    JAVA_OPTS="${JAVA_OPTS} --enable-preview --enable-native-access=ALL-UNNAMED -XX:+UnlockExperimentalVMOptions -XX:+UnlockDiagnosticVMOptions"
+    JAVA_OPTS="${JAVA_OPTS} -Xmx8g -Xms8g"
+    JAVA_OPTS="${JAVA_OPTS} -XX:+TrustFinalNonStaticFields -XX:-UseCompressedOops"
 
-java $JAVA_OPTS --class-path target/average-1.0.0-SNAPSHOT.jar dev.morling.onebrc.CalculateAverage_slovdahl
+    java $JAVA_OPTS --class-path target/average-1.0.0-SNAPSHOT.jar dev.morling.onebrc.CalculateAverage_slovdahl "$@"
+fi
@@ -0,0 +1,60 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+# Creates an AppCDS archive for a JVM-based fork, target/cds/<fork>.jsa, from a training run of its
+# calculate_average_<fork>.sh on the given file (by default a 10K station sample). Classes loaded by that run are
+# archived, so that run_with_cds.sh can map them in at start-up instead of loading and verifying them again, e.g.
+#   ./create_cds_archive.sh slovdahl
+#   ./run_with_cds.sh slovdahl
+# The archive only applies to the jar it was created with; run this again after rebuilding. Forks that run as a native
+# image don't benefit.
+
+set -eo pipefail
+
+if [ -z "$1" ]
+  then
+    echo "Usage: create_cds_archive.sh <fork> (<training file>)"
+    exit 1
+fi
+
+FORK=$1
+TRAINING_FILE=${2:-src/test/resources/samples/measurements-10000-unique-keys.txt}
+ARCHIVE=$(realpath -m "target/cds/$FORK.jsa")
+
+if [ ! -f "./calculate_average_$FORK.sh" ]; then
+  echo "Error: ./calculate_average_$FORK.sh does not exist." >&2
+  exit 1
+fi
+
+mkdir -p target/cds
+rm -f "$ARCHIVE"
+
+# Runs in a scratch directory, so that ./measurements.txt and its sidecar files are left alone.
+WORK_DIR=$(mktemp -d)
+trap 'rm -rf "$WORK_DIR"' EXIT
+ln -s "$(realpath "$TRAINING_FILE")" "$WORK_DIR/measurements.txt"
+ln -s "$(realpath target)" "$WORK_DIR/target"
+ln -s "$(realpath "calculate_average_$FORK.sh")" "$WORK_DIR/calculate_average_$FORK.sh"
+
+# JDK_JAVA_OPTIONS is picked up by the java launcher, whatever JAVA_OPTS the fork's script sets itself.
+(cd "$WORK_DIR" && JDK_JAVA_OPTIONS="$JDK_JAVA_OPTIONS -XX:ArchiveClassesAtExit=$ARCHIVE" "./calculate_average_$FORK.sh" > /dev/null)
+
+if [ ! -f "$ARCHIVE" ]; then
+  echo "Error: no archive was created, does calculate_average_$FORK.sh run a JVM?" >&2
+  exit 1
+fi
+echo "Created $ARCHIVE" >&2
@@ -0,0 +1,46 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+# Builds a profile-guided native image of CalculateAverage_slovdahl with the native-slovdahl Maven profile:
+# an instrumented image is trained on CreateMeasurements3 data (10K stations, names of up to 100 bytes), once per
+# station table, and the final image is built from the collected profiles. calculate_average_slovdahl.sh picks up
+# target/CalculateAverage_slovdahl_image once it exists. PGO_ROWS sets the number of training rows.
+
+set -eo pipefail
+
+source "$HOME/.sdkman/bin/sdkman-init.sh"
+sdk use java 21.0.2-graal 1>&2
+
+PGO_ROWS=${PGO_ROWS:-10000000}
+PGO_DIR=target/pgo
+
+# ./mvnw clean verify removes target/ and will re-trigger native image creation.
+if [ ! -f target/CalculateAverage_slovdahl_image ]; then
+    ./mvnw -B -Dquick -Pnative-slovdahl package -Dslovdahl.native.imageName=CalculateAverage_slovdahl_instrumented
+
+    mkdir -p $PGO_DIR
+    if [ ! -f $PGO_DIR/measurements.txt ]; then
+        # CreateMeasurements3 reads data/weather_stations.csv and writes measurements3.txt, both relative to the working directory.
+        java --class-path target/average-1.0.0-SNAPSHOT.jar dev.morling.onebrc.CreateMeasurements3 $PGO_ROWS
+        mv measurements3.txt $PGO_DIR/measurements.txt
+    fi
+
+    (cd $PGO_DIR && ../CalculateAverage_slovdahl_instrumented -XX:ProfilesDumpFile=hashmap.iprof > /dev/null)
+    (cd $PGO_DIR && ../CalculateAverage_slovdahl_instrumented -XX:ProfilesDumpFile=tiered.iprof -DstationTable=tiered > /dev/null)
+
+    ./mvnw -B -Dquick -Pnative-slovdahl package -Dslovdahl.native.pgo=--pgo=$PGO_DIR/hashmap.iprof,$PGO_DIR/tiered.iprof
+fi
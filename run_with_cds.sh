@@ -0,0 +1,36 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+# Runs calculate_average_<fork>.sh with the AppCDS archive created by create_cds_archive.sh, if there is one, and
+# without it otherwise. A stale archive, e.g. from before the jar was rebuilt, is ignored by the JVM, with a warning on
+# stderr.
+
+if [ -z "$1" ]
+  then
+    echo "Usage: run_with_cds.sh <fork> (<arguments> ...)"
+    exit 1
+fi
+
+FORK=$1
+shift
+
+if [ -f "target/cds/$FORK.jsa" ]; then
+  # The JVM logs its CDS warnings to stdout by default, where they would end up in the results.
+  export JDK_JAVA_OPTIONS="$JDK_JAVA_OPTIONS -XX:SharedArchiveFile=target/cds/$FORK.jsa -Xlog:cds*=off -Xlog:cds*=warning:stderr"
+fi
+
+exec "./calculate_average_$FORK.sh" "$@"
@@ -15,23 +15,60 @@
  */
 package dev.morling.onebrc;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
 import java.util.StringJoiner;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.StructuredTaskScope;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
 
 import static java.util.stream.Collectors.collectingAndThen;
 import static java.util.stream.Collectors.groupingBy;
@@ -43,192 +80,2314 @@ public class CalculateAverage_slovdahl {
 
     private static final int SLICE_SIZE = 1_048_576;
 
+    private static final int MAX_LINE_LENGTH = 128;
+
+    private static final boolean SEGMENT_INDEX = Boolean.parseBoolean(System.getProperty("segmentIndex", "true"));
+    private static final long SEGMENT_INDEX_GRANULARITY = Long.parseLong(System.getProperty("segmentIndexGranularityMb", "4")) * 1_048_576;
+
+    private static final boolean NUMA = Boolean.parseBoolean(System.getProperty("numa", "false"));
+
+    private static final List<Native.Advice> MADVISE = Native.Advice.parse(System.getProperty("madvise", ""));
+
+    private static final boolean STATS = Boolean.parseBoolean(System.getProperty("stats", "false"));
+
+    private static final IoMode IO = IoMode.valueOf(System.getProperty("io", "mmap").toUpperCase(Locale.ROOT));
+    private static final int READ_BUFFER_SIZE = Integer.parseInt(System.getProperty("readBufferSizeMb", "4")) * 1_048_576;
+    private static final int READ_BUFFERS = Integer.getInteger("readBuffers", 0);
+
+    private static final boolean BLOCK_CACHE = Boolean.parseBoolean(System.getProperty("blockCache", "false"));
+    private static final long BLOCK_CACHE_BLOCK_SIZE = Long.parseLong(System.getProperty("blockCacheBlockSizeMb", "16")) * 1_048_576;
+
+    private static final long DEADLINE_MILLIS = Long.getLong("deadline", 0);
+    private static final int CHUNKS_PER_SEGMENT_WITH_DEADLINE = 8;
+
+    private static final boolean TIERED_STATION_TABLE = "tiered".equals(System.getProperty("stationTable", "hashmap"));
+
+    // With -DhashSeed=random (or a fixed number), which names collide differs from run to run.
+    private static final long HASH_SEED = hashSeed(System.getProperty("hashSeed", "0"));
+
+    private static final boolean VALIDATE = Boolean.parseBoolean(System.getProperty("validate", "false"));
+
+    private static final FixedPoint FIXED_POINT = FixedPoint.of(System.getProperty("numberFormat", "2.1"));
+    private static final int MAX_NAME_LENGTH = 100;
+
+    private static final int INTERLEAVE = Integer.getInteger("interleave", 0);
+    private static final int MAX_INTERLEAVE = 4;
+
+    private static final boolean ADAPTIVE_CHUNKS = "adaptive".equals(System.getProperty("chunking", "fixed"));
+    private static final long ADAPTIVE_MIN_CHUNK_SIZE = Long.parseLong(System.getProperty("adaptiveMinChunkKb", "256")) * 1024;
+    private static final long ADAPTIVE_MAX_CHUNK_SIZE = Long.parseLong(System.getProperty("adaptiveMaxChunkMb", "64")) * 1_048_576;
+
+    private static long hashSeed(String value) {
+        return "random".equals(value) ? new SecureRandom().nextLong() : Long.parseLong(value);
+    }
+
     public static void main(String[] args) throws IOException, ExecutionException, InterruptedException {
-        int segments = Runtime.getRuntime().availableProcessors() - 1;
+        if (INTERLEAVE < 0 || INTERLEAVE > MAX_INTERLEAVE) {
+            throw new IllegalArgumentException("-Dinterleave must be between 1 and " + MAX_INTERLEAVE + ", or 0 for the slice parser");
+        }
+
+        Instant deadline = DEADLINE_MILLIS > 0 ? Instant.now().plusMillis(DEADLINE_MILLIS) : null;
+        int segments = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+        List<Path> inputs = args.length > 0 ? Arrays.stream(args).map(Paths::get).toList() : List.of(Paths.get(FILE));
+        if (args.length > 0 && IO != IoMode.SPLIT) {
+            throw new IllegalArgumentException("Input files can only be given with -Dio=split, the other modes read " + FILE);
+        }
 
         try (Arena arena = Arena.ofShared();
-                FileChannel channel = FileChannel.open(Paths.get(FILE), StandardOpenOption.READ);
+                FileChannel channel = FileChannel.open(inputs.getFirst(), StandardOpenOption.READ);
                 ExecutorService executor = Executors.newThreadPerTaskExecutor(Executors.defaultThreadFactory())) {
 
-            long size = channel.size();
-            if (size < SLICE_SIZE) {
-                segments = 1;
+            long size = channel.size();
+            if (size < SLICE_SIZE) {
+                segments = 1;
+            }
+
+            PageFaults pageFaultsBefore = STATS ? PageFaults.current() : null;
+
+            List<Map<Station, MeasurementAggregator>> partials;
+            if (IO == IoMode.SPLIT) {
+                partials = SplitScheduler.process(inputs, arena, segments);
+            }
+            else if (IO != IoMode.MMAP) {
+                partials = AsyncReadPipeline.process(Paths.get(FILE), size, segments, executor);
+            }
+            else {
+                MemorySegment mappedFile = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+                for (Native.Advice advice : MADVISE) {
+                    if (!Native.madvise(mappedFile, advice) && STATS) {
+                        System.err.println("madvise(" + advice + ") failed");
+                    }
+                }
+                partials = processMapped(mappedFile, segments, deadline, executor);
+            }
+
+            TreeMap<String, ResultRow> result = partials.stream()
+                    .flatMap(m -> m.entrySet().stream())
+                    .collect(groupingBy(
+                            e -> new String(e.getKey().name()),
+                            TreeMap::new,
+                            collectingAndThen(
+                                    reducing(
+                                            new MeasurementAggregator(),
+                                            Map.Entry::getValue,
+                                            (agg1, agg2) -> {
+                                                MeasurementAggregator res = new MeasurementAggregator();
+                                                res.min = Math.min(agg1.min, agg2.min);
+                                                res.max = Math.max(agg1.max, agg2.max);
+                                                res.sum = agg1.sum + agg2.sum;
+                                                res.count = agg1.count + agg2.count;
+
+                                                return res;
+                                            }),
+                                    agg -> new ResultRow(
+                                            FIXED_POINT.toDouble(agg.min),
+                                            FIXED_POINT.round(FIXED_POINT.toDouble(agg.sum)) / agg.count,
+                                            FIXED_POINT.toDouble(agg.max)))));
+
+            System.out.println(result);
+
+            if (VALIDATE) {
+                ValidatingParser.reportErrors();
+            }
+
+            if (STATS) {
+                PageFaults pageFaults = PageFaults.current().minus(pageFaultsBefore);
+                System.err.printf("Page faults: %,d minor, %,d major (madvise: %s)%n", pageFaults.minor(), pageFaults.major(), MADVISE);
+            }
+
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<Map<Station, MeasurementAggregator>> processMapped(MemorySegment mappedFile, int segments, Instant deadline,
+                                                                           ExecutorService executor)
+            throws IOException, InterruptedException, ExecutionException {
+        if (BLOCK_CACHE) {
+            SegmentIndex index = SegmentIndex.loadOrBuild(Paths.get(FILE), mappedFile, SEGMENT_INDEX_GRANULARITY);
+            return BlockCache.query(Paths.get(FILE), mappedFile, index, BLOCK_CACHE_BLOCK_SIZE, segments, executor);
+        }
+
+        List<NumaNode> numaNodes = NUMA ? NumaNode.detect() : List.of();
+        if (numaNodes.size() > 1) {
+            return processNumaAware(mappedFile, numaNodes, executor);
+        }
+
+        ChunkSource chunks;
+        if (ADAPTIVE_CHUNKS) {
+            chunks = new AdaptiveChunks(mappedFile, segments);
+        }
+        else {
+            // With a deadline, smaller chunks make for finer-grained partial results.
+            chunks = new FixedChunks(mappedFile, planBoundaries(mappedFile, deadline == null ? segments : segments * CHUNKS_PER_SEGMENT_WITH_DEADLINE));
+        }
+        return processChunks(mappedFile, chunks, segments, deadline);
+    }
+
+    /**
+     * Aggregates the chunks handed out by the given source with the given number of workers, under a
+     * {@link ChunkScope}. If the deadline passes first, the workers are cancelled and only the chunks completed so far
+     * are returned, with their coverage of the input reported on stderr. Malformed input fails the whole run,
+     * cancelling the other workers.
+     */
+    private static List<Map<Station, MeasurementAggregator>> processChunks(MemorySegment mappedFile, ChunkSource chunks, int workers, Instant deadline)
+            throws InterruptedException, ExecutionException {
+        // Without a deadline, each worker aggregates all of its chunks into a single map. With one, each chunk gets its
+        // own map, so that a chunk interrupted half-way through doesn't end up in the results.
+        Queue<Map<Station, MeasurementAggregator>> results = new ConcurrentLinkedQueue<>();
+        AtomicInteger completedChunks = new AtomicInteger();
+        AtomicLong coveredBytes = new AtomicLong();
+
+        boolean timedOut = false;
+        try (ChunkScope scope = new ChunkScope()) {
+            for (int w = 0; w < workers; w++) {
+                int worker = w;
+                scope.fork(() -> {
+                    Map<Station, MeasurementAggregator> map = HashMap.newHashMap(10_000);
+                    byte[] array = new byte[SLICE_SIZE];
+                    for (MemorySegment chunk = chunks.next(worker); chunk != null; chunk = chunks.next(worker)) {
+                        if (deadline != null) {
+                            map = HashMap.newHashMap(10_000);
+                        }
+                        long startNanos = System.nanoTime();
+                        try {
+                            processSegment(chunk, map, array);
+                        }
+                        catch (MalformedLineException e) {
+                            throw e.offsetBy(chunk.address() - mappedFile.address());
+                        }
+                        chunks.completed(worker, chunk.byteSize(), System.nanoTime() - startNanos);
+
+                        if (deadline != null) {
+                            results.add(map);
+                        }
+                        completedChunks.incrementAndGet();
+                        coveredBytes.addAndGet(chunk.byteSize());
+                    }
+                    if (deadline == null) {
+                        results.add(map);
+                    }
+                    return null;
+                });
+            }
+
+            if (deadline == null) {
+                scope.join();
+            }
+            else {
+                try {
+                    scope.joinUntil(deadline);
+                }
+                catch (TimeoutException e) {
+                    timedOut = true;
+                    scope.shutdown();
+                    scope.join();
+                }
+            }
+            scope.throwIfFailed();
+        }
+
+        if (timedOut) {
+            long size = mappedFile.byteSize();
+            System.err.printf("Deadline of %,d ms exceeded, partial results cover %d chunks (%,d of %,d bytes, %.1f%%)%n",
+                    DEADLINE_MILLIS, completedChunks.get(), coveredBytes.get(), size, size == 0 ? 100.0 : 100.0 * coveredBytes.get() / size);
+        }
+        if (STATS) {
+            System.err.println(chunks);
+        }
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * Hands out line-aligned chunks of the input to the workers of {@link #processChunks}.
+     */
+    private interface ChunkSource {
+
+        /**
+         * Claims the next chunk for the given worker, or returns {@code null} once all of the input has been claimed.
+         */
+        MemorySegment next(int worker);
+
+        /**
+         * Called by a worker after it has aggregated a chunk, with the time that took.
+         */
+        default void completed(int worker, long bytes, long nanos) {
+        }
+    }
+
+    /**
+     * Hands out the chunks between precomputed boundaries, in order.
+     */
+    private static final class FixedChunks implements ChunkSource {
+        private final MemorySegment mappedFile;
+        private final long[] boundaries;
+        private final AtomicInteger nextChunk = new AtomicInteger();
+
+        FixedChunks(MemorySegment mappedFile, long[] boundaries) {
+            this.mappedFile = mappedFile;
+            this.boundaries = boundaries;
+        }
+
+        @Override
+        public MemorySegment next(int worker) {
+            int c = nextChunk.getAndIncrement();
+            if (c >= boundaries.length - 1) {
+                return null;
+            }
+            return mappedFile.asSlice(boundaries[c], boundaries[c + 1] - boundaries[c]);
+        }
+
+        @Override
+        public String toString() {
+            return "Fixed chunks: " + (boundaries.length - 1);
+        }
+    }
+
+    /**
+     * Guided self-scheduling: each claim takes half of the claiming worker's fair share of the input that is left, where
+     * the share is weighed by the worker's measured throughput (bytes/ns, smoothed over its chunks) relative to the
+     * others'. Chunks thus start out large, to keep the per-chunk overhead down, and shrink as the input runs out, so
+     * that all workers finish at about the same time even if some of them are slower, e.g. because they share a core
+     * or wait for cold pages. Workers without measurements yet are assumed to be as fast as the average of the others.
+     * Chunk sizes are kept between {@code -DadaptiveMinChunkKb} (default 256) and {@code -DadaptiveMaxChunkMb}
+     * (default 64).
+     */
+    private static final class AdaptiveChunks implements ChunkSource {
+        private final MemorySegment mappedFile;
+        private final int workers;
+        private final AtomicLong cursor = new AtomicLong();
+        // Smoothed throughput of each worker in bytes/ns, as raw double bits; 0 until its first chunk completes.
+        private final AtomicLongArray throughput;
+        private final AtomicInteger chunks = new AtomicInteger();
+        private final AtomicLong smallestChunk = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong largestChunk = new AtomicLong();
+        private final AtomicLongArray finishNanos;
+
+        AdaptiveChunks(MemorySegment mappedFile, int workers) {
+            this.mappedFile = mappedFile;
+            this.workers = workers;
+            this.throughput = new AtomicLongArray(workers);
+            this.finishNanos = new AtomicLongArray(workers);
+        }
+
+        @Override
+        public MemorySegment next(int worker) {
+            long size = mappedFile.byteSize();
+            while (true) {
+                long start = cursor.get();
+                if (start >= size) {
+                    finishNanos.set(worker, System.nanoTime());
+                    return null;
+                }
+
+                long chunkSize = Math.clamp(targetSize(worker, size - start), ADAPTIVE_MIN_CHUNK_SIZE, ADAPTIVE_MAX_CHUNK_SIZE);
+                long end = Math.min(start + chunkSize, size);
+                while (end < size && mappedFile.get(ValueLayout.JAVA_BYTE, end - 1) != (byte) '\n') {
+                    end++;
+                }
+
+                if (cursor.compareAndSet(start, end)) {
+                    chunks.incrementAndGet();
+                    smallestChunk.accumulateAndGet(end - start, Math::min);
+                    largestChunk.accumulateAndGet(end - start, Math::max);
+                    return mappedFile.asSlice(start, end - start);
+                }
+            }
+        }
+
+        private long targetSize(int worker, long remaining) {
+            double total = 0;
+            int measured = 0;
+            for (int w = 0; w < workers; w++) {
+                double t = Double.longBitsToDouble(throughput.get(w));
+                if (t > 0) {
+                    total += t;
+                    measured++;
+                }
+            }
+            if (measured == 0) {
+                return remaining / (2L * workers);
+            }
+
+            double average = total / measured;
+            double own = Double.longBitsToDouble(throughput.get(worker));
+            double share = (own > 0 ? own : average) / (total + (workers - measured) * average);
+            return (long) (remaining * share / 2);
+        }
+
+        @Override
+        public void completed(int worker, long bytes, long nanos) {
+            double measured = (double) bytes / Math.max(1, nanos);
+            double previous = Double.longBitsToDouble(throughput.get(worker));
+            throughput.set(worker, Double.doubleToRawLongBits(previous > 0 ? (previous + measured) / 2 : measured));
+        }
+
+        @Override
+        public String toString() {
+            long first = Long.MAX_VALUE;
+            long last = 0;
+            for (int w = 0; w < workers; w++) {
+                long nanos = finishNanos.get(w);
+                if (nanos != 0) {
+                    first = Math.min(first, nanos);
+                    last = Math.max(last, nanos);
+                }
+            }
+            return String.format("Adaptive chunks: %d, %,d to %,d bytes, workers finished within %.2f ms of each other",
+                    chunks.get(), chunks.get() == 0 ? 0 : smallestChunk.get(), largestChunk.get(), last == 0 ? 0.0 : (last - first) / 1e6);
+        }
+    }
+
+    /**
+     * Runs the chunk workers of {@link #processChunks}. The first failing worker shuts the scope down, which interrupts
+     * its siblings; they give up at the start of their next slice.
+     */
+    private static final class ChunkScope extends StructuredTaskScope<Void> {
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        ChunkScope() {
+            super("slovdahl-chunks", Thread.ofPlatform().factory());
+        }
+
+        @Override
+        protected void handleComplete(Subtask<? extends Void> subtask) {
+            if (subtask.state() == Subtask.State.FAILED && failure.compareAndSet(null, subtask.exception())) {
+                shutdown();
+            }
+        }
+
+        void throwIfFailed() throws ExecutionException {
+            ensureOwnerAndJoined();
+            Throwable t = failure.get();
+            if (t != null) {
+                throw new ExecutionException(t);
+            }
+        }
+    }
+
+    /**
+     * Thrown when a line of the input isn't of the form {@code <station>;<temperature>}.
+     */
+    private static final class MalformedLineException extends RuntimeException {
+        private final long offset;
+
+        MalformedLineException(long offset) {
+            super("Malformed line at offset " + offset);
+            this.offset = offset;
+        }
+
+        MalformedLineException offsetBy(long base) {
+            return new MalformedLineException(base + offset);
+        }
+    }
+
+    private static long[] planBoundaries(MemorySegment mappedFile, int segments) throws IOException {
+        if (SEGMENT_INDEX) {
+            return SegmentIndex.loadOrBuild(Paths.get(FILE), mappedFile, SEGMENT_INDEX_GRANULARITY).plan(segments);
+        }
+        return scanBoundaries(mappedFile, segments);
+    }
+
+    /**
+     * Gives each NUMA node a contiguous range of the file, sized by its number of CPUs, and one segment per CPU within
+     * that range. The threads of a node pin themselves to the node's CPUs, so that pages faulted in from a cold page
+     * cache and the node's aggregate table are allocated in its local memory, and merge their results into that table.
+     * Only the per-node tables are merged across nodes at the end. Best combined with {@code -XX:+UseNUMA}.
+     */
+    private static List<Map<Station, MeasurementAggregator>> processNumaAware(MemorySegment mappedFile, List<NumaNode> nodes, ExecutorService executor)
+            throws IOException, InterruptedException, ExecutionException {
+        int cpus = nodes.stream().mapToInt(node -> node.cpus().length).sum();
+        long[] boundaries = planBoundaries(mappedFile, cpus);
+        int segments = boundaries.length - 1;
+
+        // Maps each CPU slot to its node, so that segments are spread proportionally even if there are fewer of them.
+        int[] nodeOfCpu = new int[cpus];
+        for (int n = 0, cpu = 0; n < nodes.size(); n++) {
+            for (int i = 0; i < nodes.get(n).cpus().length; i++) {
+                nodeOfCpu[cpu++] = n;
+            }
+        }
+
+        List<Map<Station, MeasurementAggregator>> nodeTables = new ArrayList<>(nodes.size());
+        for (int n = 0; n < nodes.size(); n++) {
+            nodeTables.add(null);
+        }
+
+        var futures = new ArrayList<Future<?>>(segments);
+        for (int i = 0; i < segments; i++) {
+            int n = nodeOfCpu[(int) ((long) i * cpus / segments)];
+            NumaNode node = nodes.get(n);
+            MemorySegment segment = mappedFile.asSlice(boundaries[i], boundaries[i + 1] - boundaries[i]);
+            futures.add(executor.submit(() -> {
+                Native.pinCurrentThread(node.cpus());
+                Map<Station, MeasurementAggregator> map = processSegment(segment);
+
+                synchronized (node) {
+                    Map<Station, MeasurementAggregator> nodeTable = nodeTables.get(n);
+                    if (nodeTable == null) {
+                        nodeTables.set(n, map);
+                    }
+                    else {
+                        map.forEach((station, agg) -> nodeTable.merge(station, agg, MeasurementAggregator::merge));
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        return nodeTables.stream().filter(Objects::nonNull).toList();
+    }
+
+    /**
+     * Splits the file into the given number of roughly equally sized segments by scanning forward from each ideal
+     * split point to the next line break. Returns the segment boundaries, starting with 0 and ending with the file size.
+     */
+    private static long[] scanBoundaries(MemorySegment mappedFile, int segments) {
+        long size = mappedFile.byteSize();
+        long idealSegmentSize = size / segments;
+
+        long[] boundaries = new long[segments + 1];
+        int count = 1;
+        for (int i = 1; i <= segments; i++) {
+            long actualSegmentOffset = idealSegmentSize * i;
+
+            while (actualSegmentOffset < size && mappedFile.get(ValueLayout.JAVA_BYTE, actualSegmentOffset) != (byte) '\n') {
+                actualSegmentOffset++;
+            }
+
+            long boundary = Math.min(actualSegmentOffset + 1, size);
+            if (boundary > boundaries[count - 1]) {
+                boundaries[count++] = boundary;
+            }
+        }
+        if (boundaries[count - 1] != size) {
+            boundaries[count++] = size;
+        }
+
+        return Arrays.copyOf(boundaries, count);
+    }
+
+    private static Map<Station, MeasurementAggregator> processSegment(MemorySegment segment) {
+        return processSegment(segment, HashMap.newHashMap(10_000), new byte[SLICE_SIZE]);
+    }
+
+    /**
+     * Aggregates the lines of the given segment, which must start at the beginning of a line, into the given map. The
+     * slice buffer is used for copying the segment one slice at a time and must be {@link #SLICE_SIZE} bytes large.
+     * With {@code -DstationTable=tiered}, stations are looked up in a {@link StationTable} while parsing, which is
+     * merged into the map at the end. The slice parser only handles the default {@link FixedPoint} format, other
+     * formats go through the {@link Scanner}.
+     */
+    private static Map<Station, MeasurementAggregator> processSegment(MemorySegment segment, Map<Station, MeasurementAggregator> map, byte[] array) {
+        StationTable table = TIERED_STATION_TABLE ? new StationTable() : null;
+        if (VALIDATE) {
+            ValidatingParser.processSegment(segment, map, table, array);
+        }
+        else if (INTERLEAVE > 0 || !FIXED_POINT.isDefault()) {
+            Scanner.processSegment(segment, map, table, Math.max(1, INTERLEAVE));
+        }
+        else {
+            processSlices(segment, map, table, array);
+        }
+
+        if (table != null) {
+            table.addTo(map);
+        }
+        return map;
+    }
+
+    private static void processSlices(MemorySegment segment, Map<Station, MeasurementAggregator> map, StationTable table, byte[] array) {
+        MemorySegment bufferSegment = MemorySegment.ofArray(array);
+
+        long position = 0;
+        long segmentSize = segment.byteSize();
+
+        while (position < segmentSize) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException();
+            }
+
+            long thisSliceSize = Math.min(SLICE_SIZE, segmentSize - position);
+
+            MemorySegment.copy(
+                    segment,
+                    ValueLayout.JAVA_BYTE,
+                    position,
+                    bufferSegment,
+                    ValueLayout.JAVA_BYTE,
+                    0,
+                    thisSliceSize);
+
+            if (thisSliceSize % 8 != 0) {
+                bufferSegment
+                        .asSlice(thisSliceSize)
+                        .fill((byte) 0);
+            }
+
+            int newlinePosition = 0;
+            int startOffset = 0;
+            while (true) {
+                int semicolonPosition = nextOccurrence(array, (byte) ';', startOffset);
+                if (semicolonPosition < 0) {
+                    break;
+                }
+
+                int eolPosition = nextOccurrence(array, (byte) '\n', startOffset);
+                if (eolPosition < 0) {
+                    if (semicolonPosition < segmentSize - 4) {
+                        break;
+                    }
+                    else {
+                        newlinePosition = (int) segmentSize;
+                    }
+                }
+                else if (eolPosition < semicolonPosition || eolPosition - semicolonPosition < 4 || eolPosition - semicolonPosition > 6) {
+                    throw new MalformedLineException(position + startOffset);
+                }
+                else {
+                    newlinePosition = eolPosition;
+                }
+
+                int temperatureStart = semicolonPosition + 1;
+                int temperatureLength = newlinePosition - semicolonPosition - 1;
+
+                int temperatureIntValue;
+                if (array[temperatureStart] == '-') {
+                    if (temperatureLength == 4) {
+                        temperatureIntValue = -1 * ((array[temperatureStart + 1] - 48) * 10 +
+                                (array[temperatureStart + 3] - 48));
+                    }
+                    else {
+                        temperatureIntValue = -1 * ((array[temperatureStart + 1] - 48) * 100 +
+                                (array[temperatureStart + 2] - 48) * 10 +
+                                (array[temperatureStart + 4] - 48));
+                    }
+                }
+                else {
+                    if (temperatureLength == 3) {
+                        temperatureIntValue = (array[temperatureStart] - 48) * 10 +
+                                (array[temperatureStart + 2] - 48);
+                    }
+                    else {
+                        temperatureIntValue = (array[temperatureStart] - 48) * 100 +
+                                (array[temperatureStart + 1] - 48) * 10 +
+                                (array[temperatureStart + 3] - 48);
+                    }
+                }
+
+                MeasurementAggregator agg;
+                if (table != null) {
+                    agg = table.aggregator(bufferSegment, startOffset, semicolonPosition - startOffset);
+                }
+                else {
+                    byte[] nameArray = new byte[semicolonPosition - startOffset];
+                    System.arraycopy(array, startOffset, nameArray, 0, semicolonPosition - startOffset);
+                    Station station = new Station(nameArray);
+
+                    agg = map.get(station);
+                    if (agg == null) {
+                        agg = new MeasurementAggregator();
+                        map.put(station, agg);
+                    }
+                }
+
+                agg.min = Math.min(agg.min, temperatureIntValue);
+                agg.max = Math.max(agg.max, temperatureIntValue);
+                agg.sum += temperatureIntValue;
+                agg.count++;
+
+                // Make sure the next iteration won't find the same delimiters.
+                array[semicolonPosition] = (byte) 0;
+                array[newlinePosition] = (byte) 0;
+
+                startOffset = newlinePosition + 1;
+            }
+
+            position += newlinePosition + 1;
+        }
+    }
+
+    /**
+     * A parser for untrusted input, selected with {@code -Dvalidate=true}. Rather than assuming that every line is well
+     * formed, as the other parsers do, it checks each line and skips the malformed ones, counting them per
+     * {@link LineError}. The counts are reported on stderr once all segments have been parsed. Each line is scanned
+     * once, and names are only decoded as UTF-8 if they contain non-ASCII bytes.
+     */
+    private static final class ValidatingParser {
+
+        private enum LineError {
+            MISSING_SEPARATOR("missing ';'"),
+            BAD_NAME_LENGTH("empty name or longer than " + MAX_NAME_LENGTH + " bytes"),
+            INVALID_UTF8("name not valid UTF-8"),
+            BAD_NUMBER("temperature not of the form " + FIXED_POINT.pattern()),
+            CRLF("CRLF line ending"),
+            LINE_TOO_LONG("line longer than " + SLICE_SIZE + " bytes");
+
+            private final String description;
+
+            LineError(String description) {
+                this.description = description;
+            }
+        }
+
+        private static final LineError[] LINE_ERRORS = LineError.values();
+        private static final LongAdder[] ERROR_COUNTS = new LongAdder[LINE_ERRORS.length];
+        static {
+            Arrays.setAll(ERROR_COUNTS, i -> new LongAdder());
+        }
+
+        private static final ValueLayout.OfLong WORD = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+        private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+        private static final long SEMICOLONS = 0x3B3B3B3B3B3B3B3BL;
+
+        /**
+         * Returns a mask with only the high bit of the first byte of the word that equals the pattern's bytes set, or 0
+         * if there is none. Compared as unsigned numbers, two such masks tell which match comes first.
+         */
+        private static long firstByteMatches(long word, long pattern) {
+            long diff = word ^ pattern;
+            long matches = (diff - 0x0101010101010101L) & ~diff & 0x8080808080808080L;
+            return matches & -matches;
+        }
+
+        /**
+         * Aggregates the well-formed lines of the given segment into the given table, or the map if there is no table.
+         * Like the slice parser, this copies the segment into the slice buffer one slice at a time, which makes for
+         * cheaper reads than going to the mapped segment for every word.
+         */
+        static void processSegment(MemorySegment segment, Map<Station, MeasurementAggregator> map, StationTable table, byte[] array) {
+            MemorySegment buffer = MemorySegment.ofArray(array);
+            long[] errors = new long[LINE_ERRORS.length];
+            long size = segment.byteSize();
+
+            for (long position = 0; position < size;) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException();
+                }
+
+                int length = (int) Math.min(array.length, size - position);
+                MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, position, buffer, ValueLayout.JAVA_BYTE, 0, length);
+                boolean last = position + length == size;
+
+                int parsed = parseLines(buffer, length, last, map, table, errors);
+                if (parsed == 0) {
+                    // Not even one line fits into the slice buffer, so skip ahead to the next line.
+                    errors[LineError.LINE_TOO_LONG.ordinal()]++;
+                    position += length;
+                    while (position < size && segment.get(ValueLayout.JAVA_BYTE, position - 1) != (byte) '\n') {
+                        position++;
+                    }
+                }
+                else {
+                    position += parsed;
+                }
+            }
+
+            for (int i = 0; i < errors.length; i++) {
+                if (errors[i] != 0) {
+                    ERROR_COUNTS[i].add(errors[i]);
+                }
+            }
+        }
+
+        /**
+         * Parses the complete lines in the first {@code length} bytes of the buffer, including a last line without a
+         * line break if {@code last} is set. Returns the number of bytes parsed.
+         */
+        private static int parseLines(MemorySegment buffer, int length, boolean last, Map<Station, MeasurementAggregator> map, StationTable table,
+                                      long[] errors) {
+            int position = 0;
+            while (position < length) {
+                // Scans the line a word at a time, noting the first ';' and whether there are any non-ASCII bytes. The
+                // latter may include bytes of the next line, which only costs a needless UTF-8 check.
+                int lineStart = position;
+                int semicolon = -1;
+                long orOfBytes = 0;
+                int lineEnd = lineStart;
+                while (true) {
+                    if (lineEnd + 8 > length) {
+                        byte b;
+                        while (lineEnd < length && (b = buffer.get(ValueLayout.JAVA_BYTE, lineEnd)) != (byte) '\n') {
+                            if (b == (byte) ';' && semicolon < 0) {
+                                semicolon = lineEnd;
+                            }
+                            orOfBytes |= b;
+                            lineEnd++;
+                        }
+                        break;
+                    }
+
+                    long word = buffer.get(WORD, lineEnd);
+                    orOfBytes |= word;
+                    long newlines = firstByteMatches(word, NEWLINES);
+                    if (semicolon < 0) {
+                        long semicolons = firstByteMatches(word, SEMICOLONS);
+                        if (semicolons != 0 && (newlines == 0 || Long.compareUnsigned(semicolons, newlines) < 0)) {
+                            semicolon = lineEnd + Long.numberOfTrailingZeros(semicolons) / 8;
+                        }
+                    }
+                    if (newlines != 0) {
+                        lineEnd += Long.numberOfTrailingZeros(newlines) / 8;
+                        break;
+                    }
+                    lineEnd += 8;
+                }
+                if (lineEnd == length && !last) {
+                    // Incomplete, it continues in the next slice.
+                    break;
+                }
+                position = lineEnd + 1;
+
+                recordLine(buffer, lineStart, semicolon, lineEnd, orOfBytes, map, table, errors);
+            }
+            return Math.min(position, length);
+        }
+
+        /**
+         * Checks the line with the given bounds, and records its temperature if it is well-formed.
+         */
+        private static void recordLine(MemorySegment buffer, int lineStart, int semicolon, int lineEnd, long orOfBytes,
+                                       Map<Station, MeasurementAggregator> map, StationTable table, long[] errors) {
+            LineError error = null;
+            int temperature = FixedPoint.NO_VALUE;
+            if (lineEnd > lineStart && buffer.get(ValueLayout.JAVA_BYTE, lineEnd - 1) == (byte) '\r') {
+                error = LineError.CRLF;
+            }
+            else if (semicolon < 0) {
+                error = LineError.MISSING_SEPARATOR;
+            }
+            else if (semicolon == lineStart || semicolon - lineStart > MAX_NAME_LENGTH) {
+                error = LineError.BAD_NAME_LENGTH;
+            }
+            else if ((orOfBytes & 0x8080808080808080L) != 0 && !isValidUtf8(buffer, lineStart, semicolon)) {
+                error = LineError.INVALID_UTF8;
+            }
+            else if ((temperature = FIXED_POINT.parse(buffer, semicolon + 1, lineEnd)) == FixedPoint.NO_VALUE) {
+                error = LineError.BAD_NUMBER;
+            }
+
+            if (error != null) {
+                errors[error.ordinal()]++;
+                return;
+            }
+
+            MeasurementAggregator agg;
+            if (table != null) {
+                agg = table.aggregator(buffer, lineStart, semicolon - lineStart);
+            }
+            else {
+                byte[] name = new byte[semicolon - lineStart];
+                MemorySegment.copy(buffer, ValueLayout.JAVA_BYTE, lineStart, name, 0, name.length);
+                Station station = new Station(name);
+                agg = map.get(station);
+                if (agg == null) {
+                    agg = new MeasurementAggregator();
+                    map.put(station, agg);
+                }
+            }
+            agg.min = Math.min(agg.min, temperature);
+            agg.max = Math.max(agg.max, temperature);
+            agg.sum += temperature;
+            agg.count++;
+        }
+
+        /**
+         * Checks for well-formed UTF-8, as defined in RFC 3629: no overlong encodings, surrogates or code points above
+         * U+10FFFF.
+         */
+        private static boolean isValidUtf8(MemorySegment segment, long start, long end) {
+            long offset = start;
+            while (offset < end) {
+                int b = segment.get(ValueLayout.JAVA_BYTE, offset) & 0xFF;
+                if (b < 0x80) {
+                    offset++;
+                    continue;
+                }
+
+                int continuationBytes;
+                int secondMin = 0x80;
+                int secondMax = 0xBF;
+                if (b >= 0xC2 && b <= 0xDF) {
+                    continuationBytes = 1;
+                }
+                else if (b >= 0xE0 && b <= 0xEF) {
+                    continuationBytes = 2;
+                    if (b == 0xE0) {
+                        secondMin = 0xA0;
+                    }
+                    else if (b == 0xED) {
+                        secondMax = 0x9F;
+                    }
+                }
+                else if (b >= 0xF0 && b <= 0xF4) {
+                    continuationBytes = 3;
+                    if (b == 0xF0) {
+                        secondMin = 0x90;
+                    }
+                    else if (b == 0xF4) {
+                        secondMax = 0x8F;
+                    }
+                }
+                else {
+                    return false;
+                }
+
+                if (offset + continuationBytes >= end) {
+                    return false;
+                }
+                int second = segment.get(ValueLayout.JAVA_BYTE, offset + 1) & 0xFF;
+                if (second < secondMin || second > secondMax) {
+                    return false;
+                }
+                for (int i = 2; i <= continuationBytes; i++) {
+                    int next = segment.get(ValueLayout.JAVA_BYTE, offset + i) & 0xFF;
+                    if (next < 0x80 || next > 0xBF) {
+                        return false;
+                    }
+                }
+                offset += continuationBytes + 1;
+            }
+            return true;
+        }
+
+        static void reportErrors() {
+            long total = Arrays.stream(ERROR_COUNTS).mapToLong(LongAdder::sum).sum();
+            if (total == 0) {
+                return;
+            }
+
+            StringJoiner counts = new StringJoiner(", ");
+            for (LineError error : LINE_ERRORS) {
+                long count = ERROR_COUNTS[error.ordinal()].sum();
+                if (count != 0) {
+                    counts.add(String.format("%s: %,d", error.description, count));
+                }
+            }
+            System.err.printf("Skipped %,d malformed lines (%s)%n", total, counts);
+        }
+    }
+
+    /**
+     * An open-addressing table of aggregators in two tiers. Names of up to 16 bytes, the vast majority in practice,
+     * are stored as two zero-padded little-endian {@code long}s in a dense array and compared as such, without
+     * allocating anything per line. Station names can't contain NUL bytes, so the padding makes the two words unique
+     * per name. Longer names go to a secondary table, which stores their hashes next to copies of the names, so that
+     * full comparisons only happen on a hash match. Both tiers double in size when half full.
+     * <p>
+     * The hashes are seeded with {@link #HASH_SEED}, so that names colliding in one run don't in the next. Should a
+     * lookup still have to probe more than {@link #MAX_PROBE_LENGTH} slots, e.g. for input crafted against a known
+     * seed, the table moves all of its stations into a {@link HashMap}, where colliding {@link Station}s end up in a
+     * balanced tree, and uses that from then on.
+     */
+    private static final class StationTable {
+        private static final int MAX_SHORT_NAME_LENGTH = 16;
+        private static final int MAX_PROBE_LENGTH = 32;
+        private static final ValueLayout.OfLong NAME_WORD = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+        private long[] shortNames = new long[2 * 1024];
+        private MeasurementAggregator[] shortAggregators = new MeasurementAggregator[1024];
+        private int shortSize;
+
+        private int[] longHashes = new int[256];
+        private byte[][] longNames = new byte[256][];
+        private MeasurementAggregator[] longAggregators = new MeasurementAggregator[256];
+        private int longSize;
+
+        private Map<Station, MeasurementAggregator> fallback;
+
+        /**
+         * Returns the aggregator for the name at the given offset of the segment, adding it if new.
+         */
+        MeasurementAggregator aggregator(MemorySegment segment, long offset, int length) {
+            if (fallback != null) {
+                return fallbackAggregator(segment, offset, length);
+            }
+
+            if (length <= MAX_SHORT_NAME_LENGTH) {
+                long word1;
+                long word2;
+                if (offset + MAX_SHORT_NAME_LENGTH <= segment.byteSize()) {
+                    word1 = maskWord(segment.get(NAME_WORD, offset), length);
+                    word2 = maskWord(segment.get(NAME_WORD, offset + 8), length - 8);
+                }
+                else {
+                    word1 = readWord(segment, offset, Math.min(length, 8));
+                    word2 = readWord(segment, offset + 8, length - 8);
+                }
+                MeasurementAggregator agg = shortAggregator(word1, word2);
+                return agg != null ? agg : switchToFallback(segment, offset, length);
+            }
+            MeasurementAggregator agg = longAggregator(segment, offset, length);
+            return agg != null ? agg : switchToFallback(segment, offset, length);
+        }
+
+        private MeasurementAggregator switchToFallback(MemorySegment segment, long offset, int length) {
+            if (STATS) {
+                System.err.printf("Station table probed more than %d slots with %,d stations, switching to HashMap%n", MAX_PROBE_LENGTH, shortSize + longSize);
+            }
+            Map<Station, MeasurementAggregator> map = HashMap.newHashMap(2 * (shortSize + longSize));
+            addTo(map);
+            fallback = map;
+            shortNames = null;
+            shortAggregators = null;
+            longHashes = null;
+            longNames = null;
+            longAggregators = null;
+            return fallbackAggregator(segment, offset, length);
+        }
+
+        private MeasurementAggregator fallbackAggregator(MemorySegment segment, long offset, int length) {
+            byte[] name = new byte[length];
+            MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, offset, name, 0, length);
+            return fallback.computeIfAbsent(new Station(name), station -> new MeasurementAggregator());
+        }
+
+        private static long maskWord(long word, int length) {
+            if (length >= 8) {
+                return word;
+            }
+            return length <= 0 ? 0 : word & (-1L >>> (64 - 8 * length));
+        }
+
+        private static long readWord(MemorySegment segment, long offset, int length) {
+            long word = 0;
+            for (int i = 0; i < length; i++) {
+                word |= (segment.get(ValueLayout.JAVA_BYTE, offset + i) & 0xFFL) << (8 * i);
+            }
+            return word;
+        }
+
+        private static int shortSlot(long word1, long word2, int mask) {
+            long hash = (Long.rotateLeft((word1 + HASH_SEED) * 0x9E3779B97F4A7C15L, 29) ^ word2) * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        /**
+         * Returns the aggregator of the given short name, adding it if new, or {@code null} if the probe length was
+         * exceeded.
+         */
+        private MeasurementAggregator shortAggregator(long word1, long word2) {
+            int mask = shortAggregators.length - 1;
+            int slot = shortSlot(word1, word2, mask);
+            for (int probes = 0; probes <= MAX_PROBE_LENGTH; probes++) {
+                MeasurementAggregator agg = shortAggregators[slot];
+                if (agg == null) {
+                    agg = new MeasurementAggregator();
+                    shortNames[2 * slot] = word1;
+                    shortNames[2 * slot + 1] = word2;
+                    shortAggregators[slot] = agg;
+                    if (++shortSize * 2 > shortAggregators.length) {
+                        growShort();
+                    }
+                    return agg;
+                }
+                if (shortNames[2 * slot] == word1 && shortNames[2 * slot + 1] == word2) {
+                    return agg;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        private void growShort() {
+            long[] names = shortNames;
+            MeasurementAggregator[] aggregators = shortAggregators;
+            shortNames = new long[2 * names.length];
+            shortAggregators = new MeasurementAggregator[2 * aggregators.length];
+            int mask = shortAggregators.length - 1;
+            for (int i = 0; i < aggregators.length; i++) {
+                if (aggregators[i] != null) {
+                    int slot = shortSlot(names[2 * i], names[2 * i + 1], mask);
+                    while (shortAggregators[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    shortNames[2 * slot] = names[2 * i];
+                    shortNames[2 * slot + 1] = names[2 * i + 1];
+                    shortAggregators[slot] = aggregators[i];
+                }
+            }
+        }
+
+        /**
+         * Returns the aggregator of the given long name, adding it if new, or {@code null} if the probe length was
+         * exceeded.
+         */
+        private MeasurementAggregator longAggregator(MemorySegment segment, long offset, int length) {
+            long seededHash = HASH_SEED ^ length;
+            for (int i = 0; i < length; i++) {
+                seededHash = (seededHash ^ segment.get(ValueLayout.JAVA_BYTE, offset + i)) * 0x100000001B3L;
+            }
+            int hash = (int) (seededHash ^ (seededHash >>> 32));
+
+            int mask = longAggregators.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            for (int probes = 0; probes <= MAX_PROBE_LENGTH; probes++) {
+                MeasurementAggregator agg = longAggregators[slot];
+                if (agg == null) {
+                    byte[] name = new byte[length];
+                    MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, offset, name, 0, length);
+                    agg = new MeasurementAggregator();
+                    longHashes[slot] = hash;
+                    longNames[slot] = name;
+                    longAggregators[slot] = agg;
+                    if (++longSize * 2 > longAggregators.length) {
+                        growLong();
+                    }
+                    return agg;
+                }
+                if (longHashes[slot] == hash && equals(longNames[slot], segment, offset, length)) {
+                    return agg;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        private static boolean equals(byte[] name, MemorySegment segment, long offset, int length) {
+            return name.length == length && MemorySegment.mismatch(MemorySegment.ofArray(name), 0, length, segment, offset, offset + length) < 0;
+        }
+
+        private void growLong() {
+            int[] hashes = longHashes;
+            byte[][] names = longNames;
+            MeasurementAggregator[] aggregators = longAggregators;
+            longHashes = new int[2 * hashes.length];
+            longNames = new byte[2 * names.length][];
+            longAggregators = new MeasurementAggregator[2 * aggregators.length];
+            int mask = longAggregators.length - 1;
+            for (int i = 0; i < aggregators.length; i++) {
+                if (aggregators[i] != null) {
+                    int slot = (hashes[i] ^ (hashes[i] >>> 16)) & mask;
+                    while (longAggregators[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    longHashes[slot] = hashes[i];
+                    longNames[slot] = names[i];
+                    longAggregators[slot] = aggregators[i];
+                }
+            }
+        }
+
+        /**
+         * Merges all stations of this table into the given map.
+         */
+        void addTo(Map<Station, MeasurementAggregator> map) {
+            if (fallback != null) {
+                fallback.forEach((station, agg) -> map.merge(station, agg, MeasurementAggregator::merge));
+                return;
+            }
+            for (int i = 0; i < shortAggregators.length; i++) {
+                if (shortAggregators[i] != null) {
+                    map.merge(new Station(shortName(shortNames[2 * i], shortNames[2 * i + 1])), shortAggregators[i], MeasurementAggregator::merge);
+                }
+            }
+            for (int i = 0; i < longAggregators.length; i++) {
+                if (longAggregators[i] != null) {
+                    map.merge(new Station(longNames[i]), longAggregators[i], MeasurementAggregator::merge);
+                }
+            }
+        }
+
+        private static byte[] shortName(long word1, long word2) {
+            int length = word2 != 0
+                    ? 16 - Long.numberOfLeadingZeros(word2) / 8
+                    : 8 - Long.numberOfLeadingZeros(word1) / 8;
+            byte[] name = new byte[length];
+            for (int i = 0; i < length; i++) {
+                name[i] = (byte) ((i < 8 ? word1 >>> (8 * i) : word2 >>> (8 * (i - 8))));
+            }
+            return name;
+        }
+    }
+
+    /**
+     * A cursor over the lines of a range of a segment, for parsing several ranges in lockstep, as in
+     * {@code CalculateAverage_thomaswue}. Advancing a few independent cursors step by step, rather than one range after
+     * the other, gives the CPU independent loads and branches to overlap, hiding some of the memory latency and the
+     * cost of mispredicted branches. {@code -Dinterleave=N} selects the number of cursors, 1 to {@link #MAX_INTERLEAVE}.
+     */
+    private static final class Scanner {
+        private final MemorySegment segment;
+        private long pos;
+        private final long end;
+
+        // The state of the current line between the steps of the lockstep loop.
+        private long lineStart;
+        private long semicolon;
+        private MeasurementAggregator aggregator;
+
+        private Scanner(MemorySegment segment, long start, long end) {
+            this.segment = segment;
+            this.pos = start;
+            this.end = end;
+        }
+
+        /**
+         * Aggregates the lines of the given segment into the given table, or the map if there is no table. The segment
+         * is processed in blocks of {@code interleave} slices, each split into {@code interleave} line-aligned ranges
+         * that are parsed in lockstep. Whatever the ranges have left once the first one runs out is parsed one range at
+         * a time.
+         */
+        static void processSegment(MemorySegment segment, Map<Station, MeasurementAggregator> map, StationTable table, int interleave) {
+            Scanner[] scanners = new Scanner[interleave];
+            long size = segment.byteSize();
+
+            for (long blockStart = 0; blockStart < size;) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException();
+                }
+
+                long blockEnd = nextLineStart(segment, Math.min(blockStart + (long) SLICE_SIZE * interleave, size));
+                long rangeSize = (blockEnd - blockStart) / interleave;
+                long rangeStart = blockStart;
+                for (int i = 0; i < interleave; i++) {
+                    long rangeEnd = i == interleave - 1 ? blockEnd : nextLineStart(segment, Math.max(rangeStart, blockStart + rangeSize * (i + 1)));
+                    scanners[i] = new Scanner(segment, rangeStart, rangeEnd);
+                    rangeStart = rangeEnd;
+                }
+
+                while (allHaveNext(scanners)) {
+                    for (Scanner scanner : scanners) {
+                        scanner.findStation(map, table);
+                    }
+                    for (Scanner scanner : scanners) {
+                        scanner.recordTemperature();
+                    }
+                }
+                for (Scanner scanner : scanners) {
+                    while (scanner.hasNext()) {
+                        scanner.findStation(map, table);
+                        scanner.recordTemperature();
+                    }
+                }
+
+                blockStart = blockEnd;
+            }
+        }
+
+        private static boolean allHaveNext(Scanner[] scanners) {
+            for (Scanner scanner : scanners) {
+                if (!scanner.hasNext()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the start of the first line at or after the given offset, or the end of the segment.
+         */
+        private static long nextLineStart(MemorySegment segment, long offset) {
+            long size = segment.byteSize();
+            if (offset == 0 || offset >= size) {
+                return Math.min(offset, size);
+            }
+            offset--;
+            while (offset < size && segment.get(ValueLayout.JAVA_BYTE, offset) != (byte) '\n') {
+                offset++;
+            }
+            return Math.min(offset + 1, size);
+        }
+
+        boolean hasNext() {
+            return pos < end;
+        }
+
+        /**
+         * Finds the station name of the current line, and looks up its aggregator, adding it if new.
+         */
+        void findStation(Map<Station, MeasurementAggregator> map, StationTable table) {
+            lineStart = pos;
+            long offset = pos;
+            byte b;
+            while ((b = segment.get(ValueLayout.JAVA_BYTE, offset)) != (byte) ';') {
+                if (b == (byte) '\n' || ++offset >= end) {
+                    throw new MalformedLineException(lineStart);
+                }
+            }
+            semicolon = offset;
+
+            if (table != null) {
+                aggregator = table.aggregator(segment, lineStart, (int) (semicolon - lineStart));
+                return;
+            }
+
+            byte[] name = new byte[(int) (semicolon - lineStart)];
+            MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, lineStart, name, 0, name.length);
+            Station station = new Station(name);
+
+            MeasurementAggregator agg = map.get(station);
+            if (agg == null) {
+                agg = new MeasurementAggregator();
+                map.put(station, agg);
+            }
+            aggregator = agg;
+        }
+
+        /**
+         * Parses the temperature of the current line, records it and moves on to the next line.
+         */
+        void recordTemperature() {
+            long offset = semicolon + 1;
+            while (offset < end && segment.get(ValueLayout.JAVA_BYTE, offset) != (byte) '\n') {
+                offset++;
+            }
+            int temperature = FIXED_POINT.parse(segment, semicolon + 1, offset);
+            if (temperature == FixedPoint.NO_VALUE) {
+                throw new MalformedLineException(lineStart);
+            }
+
+            MeasurementAggregator agg = aggregator;
+            agg.min = Math.min(agg.min, temperature);
+            agg.max = Math.max(agg.max, temperature);
+            agg.sum += temperature;
+            agg.count++;
+
+            pos = offset + 1;
+        }
+    }
+
+    private static int nextOccurrence(byte[] data, byte needle, int offset) {
+        while (offset < data.length) {
+            if (data[offset] == needle) {
+                return offset;
+            }
+            offset++;
+        }
+        return -1;
+    }
+
+    /**
+     * Line-aligned offsets into the input file, recorded every {@code granularity} bytes and stored in a sidecar file
+     * next to the input ({@code measurements.txt.idx}). With the index in place, segments can be planned without
+     * scanning the data pages around each split point for the next line break. The index is rebuilt whenever the
+     * input's real path, size or modification time no longer match the ones it was built for.
+     */
+    private record SegmentIndex(long granularity, long[] offsets) {
+
+        private static final int MAGIC = 0x31425243; // "1BRC"
+        private static final int VERSION = 1;
+
+        static SegmentIndex loadOrBuild(Path file, MemorySegment mappedFile, long granularity) throws IOException {
+            Path indexFile = file.resolveSibling(file.getFileName() + ".idx");
+            String realPath = file.toRealPath().toString();
+            long size = mappedFile.byteSize();
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+
+            SegmentIndex index = read(indexFile, realPath, size, lastModified, granularity);
+            if (index == null) {
+                index = build(mappedFile, granularity);
+                index.write(indexFile, realPath, size, lastModified);
+            }
+            return index;
+        }
+
+        static SegmentIndex build(MemorySegment mappedFile, long granularity) {
+            long size = mappedFile.byteSize();
+            long[] offsets = new long[(int) (size / granularity) + 2];
+            int count = 1;
+
+            for (long position = granularity; position < size; position += granularity) {
+                long offset = position;
+                while (offset < size && mappedFile.get(ValueLayout.JAVA_BYTE, offset) != (byte) '\n') {
+                    offset++;
+                }
+                if (offset + 1 >= size) {
+                    break;
+                }
+                if (offset + 1 > offsets[count - 1]) {
+                    offsets[count++] = offset + 1;
+                }
+            }
+            offsets[count++] = size;
+
+            return new SegmentIndex(granularity, Arrays.copyOf(offsets, count));
+        }
+
+        private static SegmentIndex read(Path indexFile, String realPath, long size, long lastModified, long granularity) {
+            try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return null;
+                }
+                if (!in.readUTF().equals(realPath) || in.readLong() != size || in.readLong() != lastModified
+                        || in.readLong() != granularity) {
+                    return null;
+                }
+
+                long[] offsets = new long[in.readInt()];
+                for (int i = 0; i < offsets.length; i++) {
+                    offsets[i] = in.readLong();
+                }
+                return new SegmentIndex(granularity, offsets);
+            }
+            catch (IOException e) {
+                // Missing, truncated or otherwise unreadable, just rebuild it.
+                return null;
+            }
+        }
+
+        private void write(Path indexFile, String realPath, long size, long lastModified) {
+            writeAtomically(indexFile, out -> {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(realPath);
+                out.writeLong(size);
+                out.writeLong(lastModified);
+                out.writeLong(granularity);
+                out.writeInt(offsets.length);
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+            });
+        }
+
+        /**
+         * Picks the indexed offsets closest to the ideal split points for the given number of segments. Returns the
+         * segment boundaries, starting with 0 and ending with the file size.
+         */
+        long[] plan(int segments) {
+            long size = offsets[offsets.length - 1];
+            long idealSegmentSize = size / segments;
+
+            long[] boundaries = new long[segments + 1];
+            int count = 1;
+            for (int i = 1; i < segments; i++) {
+                int position = Arrays.binarySearch(offsets, idealSegmentSize * i);
+                if (position < 0) {
+                    int insertionPoint = -position - 1;
+                    position = insertionPoint == 0
+                            || offsets[insertionPoint] - idealSegmentSize * i < idealSegmentSize * i - offsets[insertionPoint - 1]
+                                    ? insertionPoint
+                                    : insertionPoint - 1;
+                }
+
+                long boundary = offsets[position];
+                if (boundary > boundaries[count - 1] && boundary < size) {
+                    boundaries[count++] = boundary;
+                }
+            }
+            if (boundaries[count - 1] != size) {
+                boundaries[count++] = size;
+            }
+
+            return Arrays.copyOf(boundaries, count);
+        }
+
+        /**
+         * Groups the indexed offsets into line-aligned blocks of at least {@code blockSize} bytes (except for the last
+         * one). As long as the start of the file doesn't change, neither do the boundaries of the blocks covering it.
+         */
+        long[] blocks(long blockSize) {
+            long[] boundaries = new long[offsets.length];
+            int count = 1;
+            for (int i = 1; i < offsets.length; i++) {
+                boolean last = i == offsets.length - 1;
+                if ((last || offsets[i] - boundaries[count - 1] >= blockSize) && offsets[i] > boundaries[count - 1]) {
+                    boundaries[count++] = offsets[i];
+                }
+            }
+
+            return Arrays.copyOf(boundaries, count);
+        }
+    }
+
+    /**
+     * Persistent per-block aggregates ("zone maps"), stored next to the input ({@code measurements.txt.agg}). For each
+     * block from {@link SegmentIndex#blocks(long)}, the per-station min/max/sum/count is kept together with the CRC32C
+     * of the block. A query merges the block summaries and only parses blocks that are new, or, if the input's size or
+     * modification time changed, whose checksum no longer matches. Summaries built with a different
+     * {@code -DnumberFormat} are discarded.
+     */
+    private static final class BlockCache {
+
+        private static final int MAGIC = 0x31425241; // "1BRA"
+        private static final int VERSION = 2;
+
+        private record Block(long start, long end, long checksum, int[] stations, int[] min, int[] max, long[] sum, long[] count) {
+        }
+
+        private record Snapshot(long size, long lastModified, List<Station> stations, Map<Long, Block> blocks) {
+        }
+
+        private record BlockResult(Block cached, Map<Station, MeasurementAggregator> parsed, long checksum) {
+        }
+
+        static List<Map<Station, MeasurementAggregator>> query(Path file, MemorySegment mappedFile, SegmentIndex index, long blockSize, int workers,
+                                                               ExecutorService executor)
+                throws IOException, InterruptedException, ExecutionException {
+            Path cacheFile = file.resolveSibling(file.getFileName() + ".agg");
+            String realPath = file.toRealPath().toString();
+            long size = mappedFile.byteSize();
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+
+            Snapshot snapshot = read(cacheFile, realPath);
+            boolean unchanged = snapshot != null && snapshot.size() == size && snapshot.lastModified() == lastModified;
+            Map<Long, Block> cachedBlocks = snapshot != null ? snapshot.blocks() : Map.of();
+
+            long[] boundaries = index.blocks(blockSize);
+            BlockResult[] results = new BlockResult[boundaries.length - 1];
+            AtomicInteger nextBlock = new AtomicInteger();
+
+            var futures = new ArrayList<Future<?>>(workers);
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int b = nextBlock.getAndIncrement(); b < results.length; b = nextBlock.getAndIncrement()) {
+                        MemorySegment block = mappedFile.asSlice(boundaries[b], boundaries[b + 1] - boundaries[b]);
+                        Block cached = cachedBlocks.get(boundaries[b]);
+                        if (cached != null && cached.end() == boundaries[b + 1] && (unchanged || cached.checksum() == checksum(block))) {
+                            results[b] = new BlockResult(cached, null, cached.checksum());
+                        }
+                        else {
+                            results[b] = new BlockResult(null, processSegment(block), checksum(block));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            List<Station> stations = snapshot != null ? new ArrayList<>(snapshot.stations()) : new ArrayList<>();
+            Map<Station, Integer> stationIds = HashMap.newHashMap(stations.size());
+            for (int i = 0; i < stations.size(); i++) {
+                stationIds.put(stations.get(i), i);
+            }
+
+            boolean dirty = !unchanged || results.length != cachedBlocks.size();
+            Block[] blocks = new Block[results.length];
+            for (int b = 0; b < results.length; b++) {
+                if (results[b].cached() != null) {
+                    blocks[b] = results[b].cached();
+                    continue;
+                }
+
+                dirty = true;
+                Map<Station, MeasurementAggregator> parsed = results[b].parsed();
+                int[] ids = new int[parsed.size()];
+                int[] min = new int[parsed.size()];
+                int[] max = new int[parsed.size()];
+                long[] sum = new long[parsed.size()];
+                long[] count = new long[parsed.size()];
+                int i = 0;
+                for (Map.Entry<Station, MeasurementAggregator> entry : parsed.entrySet()) {
+                    ids[i] = stationIds.computeIfAbsent(entry.getKey(), station -> {
+                        stations.add(station);
+                        return stations.size() - 1;
+                    });
+                    min[i] = entry.getValue().min;
+                    max[i] = entry.getValue().max;
+                    sum[i] = entry.getValue().sum;
+                    count[i] = entry.getValue().count;
+                    i++;
+                }
+                blocks[b] = new Block(boundaries[b], boundaries[b + 1], results[b].checksum(), ids, min, max, sum, count);
+            }
+
+            if (dirty) {
+                write(cacheFile, realPath, size, lastModified, stations, blocks);
+            }
+
+            MeasurementAggregator[] aggregates = new MeasurementAggregator[stations.size()];
+            for (Block block : blocks) {
+                for (int i = 0; i < block.stations().length; i++) {
+                    MeasurementAggregator agg = aggregates[block.stations()[i]];
+                    if (agg == null) {
+                        agg = new MeasurementAggregator();
+                        aggregates[block.stations()[i]] = agg;
+                    }
+                    agg.min = Math.min(agg.min, block.min()[i]);
+                    agg.max = Math.max(agg.max, block.max()[i]);
+                    agg.sum += block.sum()[i];
+                    agg.count += block.count()[i];
+                }
+            }
+
+            Map<Station, MeasurementAggregator> map = HashMap.newHashMap(aggregates.length);
+            for (int i = 0; i < aggregates.length; i++) {
+                if (aggregates[i] != null) {
+                    map.put(stations.get(i), aggregates[i]);
+                }
+            }
+            return List.of(map);
+        }
+
+        private static long checksum(MemorySegment block) {
+            // Buffers backed by a shared arena can't be handed to CRC32C directly, so go through a heap array.
+            byte[] buffer = new byte[1 << 16];
+            CRC32C crc = new CRC32C();
+            for (long offset = 0; offset < block.byteSize(); offset += buffer.length) {
+                int length = (int) Math.min(buffer.length, block.byteSize() - offset);
+                MemorySegment.copy(block, ValueLayout.JAVA_BYTE, offset, buffer, 0, length);
+                crc.update(buffer, 0, length);
+            }
+            return crc.getValue();
+        }
+
+        private static Snapshot read(Path cacheFile, String realPath) {
+            try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile), 1 << 16))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(realPath)
+                        || !in.readUTF().equals(FIXED_POINT.toString())) {
+                    return null;
+                }
+                long size = in.readLong();
+                long lastModified = in.readLong();
+
+                int stationCount = in.readInt();
+                List<Station> stations = new ArrayList<>(stationCount);
+                for (int i = 0; i < stationCount; i++) {
+                    byte[] name = new byte[in.readUnsignedShort()];
+                    in.readFully(name);
+                    stations.add(new Station(name));
+                }
+
+                int blockCount = in.readInt();
+                Map<Long, Block> blocks = HashMap.newHashMap(blockCount);
+                for (int b = 0; b < blockCount; b++) {
+                    long start = in.readLong();
+                    long end = in.readLong();
+                    long checksum = in.readLong();
+                    int entries = in.readInt();
+                    int[] ids = new int[entries];
+                    int[] min = new int[entries];
+                    int[] max = new int[entries];
+                    long[] sum = new long[entries];
+                    long[] count = new long[entries];
+                    for (int i = 0; i < entries; i++) {
+                        ids[i] = in.readInt();
+                        min[i] = in.readInt();
+                        max[i] = in.readInt();
+                        sum[i] = in.readLong();
+                        count[i] = in.readLong();
+                    }
+                    blocks.put(start, new Block(start, end, checksum, ids, min, max, sum, count));
+                }
+
+                return new Snapshot(size, lastModified, stations, blocks);
+            }
+            catch (IOException e) {
+                // Missing, truncated or otherwise unreadable, start from scratch.
+                return null;
+            }
+        }
+
+        private static void write(Path cacheFile, String realPath, long size, long lastModified, List<Station> stations, Block[] blocks) {
+            writeAtomically(cacheFile, out -> {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(realPath);
+                out.writeUTF(FIXED_POINT.toString());
+                out.writeLong(size);
+                out.writeLong(lastModified);
+
+                out.writeInt(stations.size());
+                for (Station station : stations) {
+                    out.writeShort(station.name().length);
+                    out.write(station.name());
+                }
+
+                out.writeInt(blocks.length);
+                for (Block block : blocks) {
+                    out.writeLong(block.start());
+                    out.writeLong(block.end());
+                    out.writeLong(block.checksum());
+                    out.writeInt(block.stations().length);
+                    for (int i = 0; i < block.stations().length; i++) {
+                        out.writeInt(block.stations()[i]);
+                        out.writeInt(block.min()[i]);
+                        out.writeInt(block.max()[i]);
+                        out.writeLong(block.sum()[i]);
+                        out.writeLong(block.count()[i]);
+                    }
+                }
+            });
+        }
+    }
+
+    private interface DataWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes a sidecar file via a temporary file and an atomic rename, so that concurrent runs never see a partially
+     * written one. Failures are ignored, not being able to persist a sidecar file (e.g. in a read-only directory) only
+     * costs the next run some extra work.
+     */
+    private static void writeAtomically(Path file, DataWriter writer) {
+        try {
+            Path tempFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+                    writer.write(out);
+                }
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
             }
+            finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+        catch (IOException e) {
+            // Ignored, see above.
+        }
+    }
 
-            long idealSegmentSize = size / segments;
+    private enum IoMode {
+        /**
+         * Memory-maps the input file.
+         */
+        MMAP,
+        /**
+         * Reads the input file through {@link AsyncReadPipeline}, using an {@link AsynchronousFileChannel}.
+         */
+        ASYNC,
+        /**
+         * Reads the input file through {@link AsyncReadPipeline}, using {@link PreadReader}.
+         */
+        PREAD,
+        /**
+         * Memory-maps the input files, touching their pages from virtual threads and parsing them on a fixed pool of
+         * platform threads, see {@link SplitScheduler}.
+         */
+        SPLIT
+    }
 
-            MemorySegment mappedFile = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
-            var futures = new ArrayList<Future<Map<Station, MeasurementAggregator>>>(segments);
+    /**
+     * Separates waiting for the input from parsing it, for inputs that are slow to fault in, such as network mounts,
+     * and for several input files at once. The mapped files are cut into chunks of {@link #READ_BUFFER_SIZE} bytes. A
+     * cheap virtual thread per chunk loads its pages into memory and hands it to a fixed pool of platform threads, one
+     * per segment, which do the CPU-bound parsing. At most {@code -DreadBuffers} chunks (default: two per parser) are
+     * prefetched ahead of the parsers, so that prefetching can't evict pages that haven't been parsed yet. The time
+     * chunks spend queued between the two stages is reported with {@code -Dstats=true}.
+     * <p>
+     * As in {@link AsyncReadPipeline}, a chunk owns all lines that start within it.
+     */
+    private static final class SplitScheduler {
 
-            long segmentStart = 0;
-            for (int i = 1; i <= segments; i++) {
-                long actualSegmentOffset = idealSegmentSize * i;
+        private static final Chunk POISON = new Chunk(MemorySegment.NULL, 0);
 
-                while (actualSegmentOffset < size && mappedFile.get(ValueLayout.JAVA_BYTE, actualSegmentOffset) != (byte) '\n') {
-                    actualSegmentOffset++;
-                }
+        private record Chunk(MemorySegment lines, long enqueuedNanos) {
+        }
 
-                long end = actualSegmentOffset - segmentStart;
-                if (segmentStart + actualSegmentOffset - segmentStart + 1 < size) {
-                    end += 1;
+        static List<Map<Station, MeasurementAggregator>> process(List<Path> files, Arena arena, int parsers)
+                throws IOException, InterruptedException, ExecutionException {
+            List<MemorySegment> mappedFiles = new ArrayList<>(files.size());
+            int chunks = 0;
+            for (Path file : files) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    MemorySegment mappedFile = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+                    mappedFiles.add(mappedFile);
+                    chunks += (int) ((mappedFile.byteSize() + READ_BUFFER_SIZE - 1) / READ_BUFFER_SIZE);
                 }
+            }
 
-                MemorySegment segment = mappedFile.asSlice(segmentStart, end);
-                segmentStart = actualSegmentOffset + 1;
-
-                futures.add(executor.submit(() -> {
-                    byte[] array = new byte[SLICE_SIZE];
-                    MemorySegment bufferSegment = MemorySegment.ofArray(array);
+            int depth = READ_BUFFERS > 0 ? READ_BUFFERS : 2 * parsers;
+            Semaphore prefetchPermits = new Semaphore(depth);
+            BlockingQueue<Chunk> ready = new LinkedBlockingQueue<>();
+            CountDownLatch parsed = new CountDownLatch(chunks);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            LongAdder totalDelayNanos = new LongAdder();
+            AtomicLong maxDelayNanos = new AtomicLong();
 
-                    long position = 0;
-                    long segmentSize = segment.byteSize();
+            ExecutorService parserPool = Executors.newFixedThreadPool(parsers);
+            var futures = new ArrayList<Future<Map<Station, MeasurementAggregator>>>(parsers);
+            for (int i = 0; i < parsers; i++) {
+                futures.add(parserPool.submit(() -> {
                     Map<Station, MeasurementAggregator> map = HashMap.newHashMap(10_000);
-
-                    while (position < segmentSize) {
-                        long thisSliceSize = Math.min(SLICE_SIZE, segmentSize - position);
-
-                        MemorySegment.copy(
-                                segment,
-                                ValueLayout.JAVA_BYTE,
-                                position,
-                                bufferSegment,
-                                ValueLayout.JAVA_BYTE,
-                                0,
-                                thisSliceSize);
-
-                        if (thisSliceSize % 8 != 0) {
-                            bufferSegment
-                                    .asSlice(thisSliceSize)
-                                    .fill((byte) 0);
+                    byte[] slice = new byte[SLICE_SIZE];
+                    while (true) {
+                        Chunk chunk = ready.take();
+                        if (chunk == POISON) {
+                            return map;
                         }
 
-                        int newlinePosition = 0;
-                        int startOffset = 0;
-                        while (true) {
-                            int semicolonPosition = nextOccurrence(array, (byte) ';', startOffset);
-                            if (semicolonPosition < 0) {
-                                break;
+                        long delay = System.nanoTime() - chunk.enqueuedNanos();
+                        totalDelayNanos.add(delay);
+                        maxDelayNanos.accumulateAndGet(delay, Math::max);
+                        try {
+                            if (failure.get() == null) {
+                                processSegment(chunk.lines(), map, slice);
                             }
+                        }
+                        catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        }
+                        finally {
+                            prefetchPermits.release();
+                            parsed.countDown();
+                        }
+                    }
+                }));
+            }
 
-                            int eolPosition = nextOccurrence(array, (byte) '\n', startOffset);
-                            if (eolPosition < 0) {
-                                if (semicolonPosition < segmentSize - 4) {
-                                    break;
-                                }
-                                else {
-                                    newlinePosition = (int) segmentSize;
-                                }
+            try (ExecutorService prefetchers = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (MemorySegment mappedFile : mappedFiles) {
+                    for (long start = 0; start < mappedFile.byteSize(); start += READ_BUFFER_SIZE) {
+                        long chunkStart = start;
+                        prefetchPermits.acquire();
+                        prefetchers.execute(() -> {
+                            try {
+                                MemorySegment lines = linesOf(mappedFile, chunkStart, Math.min(chunkStart + READ_BUFFER_SIZE, mappedFile.byteSize()));
+                                lines.load();
+                                ready.add(new Chunk(lines, System.nanoTime()));
                             }
-                            else {
-                                newlinePosition = eolPosition;
+                            catch (Throwable t) {
+                                failure.compareAndSet(null, t);
+                                prefetchPermits.release();
+                                parsed.countDown();
                             }
+                        });
+                    }
+                }
+                parsed.await();
+            }
+            finally {
+                for (int i = 0; i < parsers; i++) {
+                    ready.put(POISON);
+                }
+                parserPool.shutdown();
+            }
 
-                            byte[] nameArray = new byte[semicolonPosition - startOffset];
-                            System.arraycopy(array, startOffset, nameArray, 0, semicolonPosition - startOffset);
-                            Station station = new Station(nameArray);
+            if (failure.get() != null) {
+                throw new ExecutionException(failure.get());
+            }
 
-                            int temperatureStart = semicolonPosition + 1;
-                            int temperatureLength = newlinePosition - semicolonPosition - 1;
+            List<Map<Station, MeasurementAggregator>> partials = new ArrayList<>(parsers);
+            for (Future<Map<Station, MeasurementAggregator>> future : futures) {
+                partials.add(future.get());
+            }
 
-                            int temperatureIntValue;
-                            if (array[temperatureStart] == '-') {
-                                if (temperatureLength == 4) {
-                                    temperatureIntValue = -1 * ((array[temperatureStart + 1] - 48) * 10 +
-                                            (array[temperatureStart + 3] - 48));
-                                }
-                                else {
-                                    temperatureIntValue = -1 * ((array[temperatureStart + 1] - 48) * 100 +
-                                            (array[temperatureStart + 2] - 48) * 10 +
-                                            (array[temperatureStart + 4] - 48));
-                                }
+            if (STATS) {
+                System.err.printf("Queue delay: %d chunks, avg %.2f ms, max %.2f ms (prefetch depth %d, %d parsers, %d files)%n",
+                        chunks, chunks == 0 ? 0.0 : totalDelayNanos.sum() / 1e6 / chunks, maxDelayNanos.get() / 1e6, depth, parsers, files.size());
+            }
+            return partials;
+        }
+
+        /**
+         * Returns the lines of the mapped file that start within the given range.
+         */
+        private static MemorySegment linesOf(MemorySegment mappedFile, long chunkStart, long chunkEnd) {
+            long size = mappedFile.byteSize();
+
+            long start = chunkStart;
+            if (chunkStart > 0) {
+                start--;
+                while (start < size && mappedFile.get(ValueLayout.JAVA_BYTE, start) != (byte) '\n') {
+                    start++;
+                }
+                start++;
+            }
+            if (start >= chunkEnd) {
+                return mappedFile.asSlice(0, 0);
+            }
+
+            long end = chunkEnd - 1;
+            while (end < size && mappedFile.get(ValueLayout.JAVA_BYTE, end) != (byte) '\n') {
+                end++;
+            }
+            return mappedFile.asSlice(start, Math.min(end + 1, size) - start);
+        }
+    }
+
+    /**
+     * Reads the input without memory-mapping it, which behaves better than mmap readahead on e.g. network block
+     * storage. The file is cut into chunks of {@link #READ_BUFFER_SIZE} bytes, which are read with overlapping
+     * positional reads into a ring of reusable direct buffers. A filled buffer is handed to a parser thread, and given
+     * back to the reader for the next chunk once parsed, so that reading and parsing overlap fully.
+     * <p>
+     * Each buffer holds its chunk plus the byte before it and up to {@link #MAX_LINE_LENGTH} bytes after it. A chunk
+     * owns all lines that start within it: the parser skips the partial line at the start (the preceding byte tells
+     * whether there is one), and completes the last line from the bytes after the chunk.
+     */
+    private static final class AsyncReadPipeline {
+
+        private static final ChunkBuffer POISON = new ChunkBuffer(null);
+
+        private static final class ChunkBuffer {
+            private final ByteBuffer buffer;
+            private long chunkStart;
+            private long chunkEnd;
+            private Throwable failure;
+
+            private ChunkBuffer(ByteBuffer buffer) {
+                this.buffer = buffer;
+            }
+        }
+
+        static List<Map<Station, MeasurementAggregator>> process(Path file, long size, int parsers, ExecutorService executor)
+                throws IOException, InterruptedException, ExecutionException {
+            int chunks = (int) ((size + READ_BUFFER_SIZE - 1) / READ_BUFFER_SIZE);
+            int buffers = READ_BUFFERS > 0 ? READ_BUFFERS : 2 * parsers;
+
+            BlockingQueue<ChunkBuffer> free = new ArrayBlockingQueue<>(buffers);
+            BlockingQueue<ChunkBuffer> filled = new ArrayBlockingQueue<>(buffers + parsers);
+            for (int i = 0; i < buffers; i++) {
+                free.add(new ChunkBuffer(ByteBuffer.allocateDirect(1 + READ_BUFFER_SIZE + MAX_LINE_LENGTH)));
+            }
+
+            CountDownLatch parsed = new CountDownLatch(chunks);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+
+            var futures = new ArrayList<Future<Map<Station, MeasurementAggregator>>>(parsers);
+            for (int i = 0; i < parsers; i++) {
+                futures.add(executor.submit(() -> {
+                    Map<Station, MeasurementAggregator> map = HashMap.newHashMap(10_000);
+                    byte[] slice = new byte[SLICE_SIZE];
+                    while (true) {
+                        ChunkBuffer chunk = filled.take();
+                        if (chunk == POISON) {
+                            return map;
+                        }
+
+                        try {
+                            if (chunk.failure != null) {
+                                failure.compareAndSet(null, chunk.failure);
                             }
-                            else {
-                                if (temperatureLength == 3) {
-                                    temperatureIntValue = (array[temperatureStart] - 48) * 10 +
-                                            (array[temperatureStart + 2] - 48);
-                                }
-                                else {
-                                    temperatureIntValue = (array[temperatureStart] - 48) * 100 +
-                                            (array[temperatureStart + 1] - 48) * 10 +
-                                            (array[temperatureStart + 3] - 48);
-                                }
+                            else if (failure.get() == null) {
+                                processSegment(linesOf(chunk), map, slice);
                             }
+                        }
+                        catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        }
+                        finally {
+                            free.put(chunk);
+                            parsed.countDown();
+                        }
+                    }
+                }));
+            }
 
-                            MeasurementAggregator agg = map.get(station);
-                            if (agg == null) {
-                                agg = new MeasurementAggregator();
-                                map.put(station, agg);
-                            }
+            try (ChunkReader reader = IO == IoMode.PREAD ? PreadReader.open(file) : new AsyncChannelReader(file)) {
+                if (STATS) {
+                    System.err.println("Reading with " + reader);
+                }
+                for (int c = 0; c < chunks; c++) {
+                    ChunkBuffer chunk = free.take();
+                    chunk.chunkStart = (long) c * READ_BUFFER_SIZE;
+                    chunk.chunkEnd = Math.min(chunk.chunkStart + READ_BUFFER_SIZE, size);
+                    chunk.failure = null;
+                    chunk.buffer.clear();
+
+                    long readStart = Math.max(0, chunk.chunkStart - 1);
+                    chunk.buffer.limit((int) (Math.min(chunk.chunkEnd + MAX_LINE_LENGTH, size) - readStart));
+                    reader.read(chunk, readStart, filled);
+                }
+                parsed.await();
+            }
+            finally {
+                for (int i = 0; i < parsers; i++) {
+                    filled.put(POISON);
+                }
+            }
 
-                            agg.min = Math.min(agg.min, temperatureIntValue);
-                            agg.max = Math.max(agg.max, temperatureIntValue);
-                            agg.sum += temperatureIntValue;
-                            agg.count++;
+            if (failure.get() != null) {
+                throw new ExecutionException(failure.get());
+            }
+
+            List<Map<Station, MeasurementAggregator>> partials = new ArrayList<>(parsers);
+            for (Future<Map<Station, MeasurementAggregator>> future : futures) {
+                partials.add(future.get());
+            }
+            return partials;
+        }
+
+        /**
+         * Fills a chunk's buffer, starting at the given file position, and hands it to {@code filled} once done.
+         * Failures are handed over the same way, with {@link ChunkBuffer#failure} set.
+         */
+        private interface ChunkReader extends AutoCloseable {
+
+            void read(ChunkBuffer chunk, long position, BlockingQueue<ChunkBuffer> filled);
+
+            @Override
+            void close() throws IOException;
+        }
 
-                            // Make sure the next iteration won't find the same delimiters.
-                            array[semicolonPosition] = (byte) 0;
-                            array[newlinePosition] = (byte) 0;
+        private static final class AsyncChannelReader implements ChunkReader {
+            private final AsynchronousFileChannel channel;
 
-                            startOffset = newlinePosition + 1;
+            private AsyncChannelReader(Path file) throws IOException {
+                this.channel = AsynchronousFileChannel.open(file, StandardOpenOption.READ);
+            }
+
+            @Override
+            public void read(ChunkBuffer chunk, long position, BlockingQueue<ChunkBuffer> filled) {
+                channel.read(chunk.buffer, position, chunk, new CompletionHandler<>() {
+                    @Override
+                    public void completed(Integer bytesRead, ChunkBuffer chunk) {
+                        if (bytesRead >= 0 && chunk.buffer.hasRemaining()) {
+                            // Short read, continue where it left off.
+                            read(chunk, position + bytesRead, filled);
+                            return;
                         }
+                        chunk.buffer.flip();
+                        filled.add(chunk);
+                    }
 
-                        position += newlinePosition + 1;
+                    @Override
+                    public void failed(Throwable t, ChunkBuffer chunk) {
+                        chunk.failure = t;
+                        filled.add(chunk);
                     }
+                });
+            }
 
-                    return map;
-                }));
+            @Override
+            public void close() throws IOException {
+                channel.close();
             }
 
-            TreeMap<String, ResultRow> result = futures.stream()
-                    .map(f -> {
-                        try {
-                            return f.get();
+            @Override
+            public String toString() {
+                return "AsynchronousFileChannel";
+            }
+        }
+
+        /**
+         * Issues large positional reads straight into the chunks' off-heap buffers from a small pool of reader threads
+         * ({@code -DreadThreads}, default 4), so that several requests are always queued at the device. Uses
+         * {@code pread(2)} through the FFM API where available, and falls back to {@link FileChannel} positional reads
+         * otherwise.
+         */
+        private static final class PreadReader implements ChunkReader {
+            private final FileChannel channel;
+            private final int fd;
+            private final ExecutorService readers;
+
+            private PreadReader(FileChannel channel, int fd) {
+                this.channel = channel;
+                this.fd = fd;
+                this.readers = Executors.newFixedThreadPool(Integer.getInteger("readThreads", 4));
+            }
+
+            static PreadReader open(Path file) throws IOException {
+                int fd = Native.open(file);
+                return new PreadReader(fd < 0 ? FileChannel.open(file, StandardOpenOption.READ) : null, fd);
+            }
+
+            @Override
+            public void read(ChunkBuffer chunk, long position, BlockingQueue<ChunkBuffer> filled) {
+                readers.execute(() -> {
+                    try {
+                        MemorySegment buffer = MemorySegment.ofBuffer(chunk.buffer);
+                        long offset = position;
+                        while (chunk.buffer.hasRemaining()) {
+                            long bytesRead = channel == null
+                                    ? Native.pread(fd, buffer.asSlice(chunk.buffer.position()), offset)
+                                    : channel.read(chunk.buffer.slice(), offset);
+                            if (bytesRead < 0) {
+                                if (channel == null) {
+                                    throw new IOException("pread failed at offset " + offset);
+                                }
+                                break;
+                            }
+                            if (bytesRead == 0) {
+                                break;
+                            }
+                            chunk.buffer.position(chunk.buffer.position() + (int) bytesRead);
+                            offset += bytesRead;
                         }
-                        catch (InterruptedException | ExecutionException e) {
-                            throw new RuntimeException(e);
+                        chunk.buffer.flip();
+                    }
+                    catch (Throwable t) {
+                        chunk.failure = t;
+                    }
+                    filled.add(chunk);
+                });
+            }
+
+            @Override
+            public void close() throws IOException {
+                readers.shutdownNow();
+                if (channel != null) {
+                    channel.close();
+                }
+                else {
+                    Native.close(fd);
+                }
+            }
+
+            @Override
+            public String toString() {
+                return channel == null ? "pread" : "FileChannel (pread not available)";
+            }
+        }
+
+        /**
+         * Returns the lines starting within the chunk, see the class comment.
+         */
+        private static MemorySegment linesOf(ChunkBuffer chunk) {
+            MemorySegment buffer = MemorySegment.ofBuffer(chunk.buffer);
+            long bufferStart = Math.max(0, chunk.chunkStart - 1);
+
+            long start = 0;
+            if (chunk.chunkStart > 0) {
+                while (buffer.get(ValueLayout.JAVA_BYTE, start) != (byte) '\n') {
+                    start++;
+                }
+                start++;
+            }
+
+            long end = chunk.chunkEnd - bufferStart;
+            if (start >= end) {
+                return buffer.asSlice(0, 0);
+            }
+            end--;
+            while (end < buffer.byteSize() && buffer.get(ValueLayout.JAVA_BYTE, end) != (byte) '\n') {
+                end++;
+            }
+            return buffer.asSlice(start, Math.min(end + 1, buffer.byteSize()) - start);
+        }
+    }
+
+    /**
+     * A NUMA node and its CPUs, as listed in {@code /sys/devices/system/node}. Nodes without CPUs are left out.
+     */
+    private record NumaNode(int id, int[] cpus) {
+
+        static List<NumaNode> detect() {
+            List<NumaNode> nodes = new ArrayList<>();
+            try (var directories = Files.newDirectoryStream(Paths.get("/sys/devices/system/node"), "node[0-9]*")) {
+                for (Path directory : directories) {
+                    int[] cpus = parseCpuList(Files.readString(directory.resolve("cpulist")).trim());
+                    if (cpus.length > 0) {
+                        nodes.add(new NumaNode(Integer.parseInt(directory.getFileName().toString().substring(4)), cpus));
+                    }
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                // No (readable) NUMA topology, e.g. not on Linux.
+                return List.of();
+            }
+
+            nodes.sort(Comparator.comparingInt(NumaNode::id));
+            return nodes;
+        }
+
+        /**
+         * Parses the kernel's CPU list format, e.g. {@code 0-7,16-23}.
+         */
+        static int[] parseCpuList(String cpuList) {
+            if (cpuList.isEmpty()) {
+                return new int[0];
+            }
+            return Arrays.stream(cpuList.split(","))
+                    .flatMapToInt(range -> {
+                        int dash = range.indexOf('-');
+                        if (dash < 0) {
+                            return IntStream.of(Integer.parseInt(range));
                         }
+                        return IntStream.rangeClosed(Integer.parseInt(range.substring(0, dash)), Integer.parseInt(range.substring(dash + 1)));
                     })
-                    .flatMap(m -> m.entrySet().stream())
-                    .collect(groupingBy(
-                            e -> new String(e.getKey().name()),
-                            TreeMap::new,
-                            collectingAndThen(
-                                    reducing(
-                                            new MeasurementAggregator(),
-                                            Map.Entry::getValue,
-                                            (agg1, agg2) -> {
-                                                MeasurementAggregator res = new MeasurementAggregator();
-                                                res.min = Math.min(agg1.min, agg2.min);
-                                                res.max = Math.max(agg1.max, agg2.max);
-                                                res.sum = agg1.sum + agg2.sum;
-                                                res.count = agg1.count + agg2.count;
+                    .toArray();
+        }
+    }
 
-                                                return res;
-                                            }),
-                                    agg -> new ResultRow(
-                                            agg.min / 10.0,
-                                            (Math.round((agg.sum / 10.0) * 10.0) / 10.0) / agg.count,
-                                            agg.max / 10.0))));
+    /**
+     * Bindings to the few libc functions used, looked up through the FFM API the same way CalculateAverage_linl33 does
+     * for malloc/calloc. Every binding is optional, callers carry on without it if a function isn't available.
+     */
+    private static final class Native {
 
-            System.out.println(result);
+        private static final Linker LINKER = nativeLinker();
 
-            executor.shutdownNow();
+        private static final MethodHandle SCHED_SETAFFINITY = downcall("sched_setaffinity",
+                FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.ADDRESS));
+        private static final MethodHandle MADVISE = downcall("madvise",
+                FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT));
+
+        /**
+         * The {@code madvise} advice values (from Linux' {@code mman-common.h}) that are useful for the mapped input.
+         * They are separate values rather than flags, so each one is a call of its own.
+         */
+        enum Advice {
+            SEQUENTIAL(2),
+            WILLNEED(3),
+            HUGEPAGE(14);
+
+            private final int value;
+
+            Advice(int value) {
+                this.value = value;
+            }
+
+            static List<Advice> parse(String advices) {
+                return Arrays.stream(advices.split(","))
+                        .map(String::trim)
+                        .filter(advice -> !advice.isEmpty())
+                        .map(advice -> valueOf(advice.toUpperCase(Locale.ROOT)))
+                        .toList();
+            }
+        }
+
+        private static final MethodHandle OPEN = downcall("open",
+                FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT));
+        private static final MethodHandle PREAD = downcall("pread",
+                FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG));
+        private static final MethodHandle CLOSE = downcall("close",
+                FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+
+        private static final int O_RDONLY = 0;
+
+        private static Linker nativeLinker() {
+            try {
+                return Linker.nativeLinker();
+            }
+            catch (UnsupportedOperationException e) {
+                // E.g. in a native image built without support for the FFM API.
+                return null;
+            }
+        }
+
+        private static MethodHandle downcall(String name, FunctionDescriptor descriptor) {
+            if (LINKER == null) {
+                return null;
+            }
+            try {
+                return LINKER.defaultLookup().find(name).map(symbol -> LINKER.downcallHandle(symbol, descriptor)).orElse(null);
+            }
+            catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Gives the kernel advice about how the given mapped segment will be accessed. Returns whether that succeeded.
+         */
+        static boolean madvise(MemorySegment segment, Advice advice) {
+            if (MADVISE == null || segment.byteSize() == 0) {
+                return false;
+            }
+
+            try {
+                return (int) MADVISE.invokeExact(segment, segment.byteSize(), advice.value) == 0;
+            }
+            catch (Throwable e) {
+                return false;
+            }
+        }
+
+        /**
+         * Opens the given file for reading. Returns the file descriptor, or -1 if that failed or isn't supported.
+         */
+        static int open(Path file) {
+            if (OPEN == null || PREAD == null || CLOSE == null) {
+                return -1;
+            }
+
+            try (Arena arena = Arena.ofConfined()) {
+                return (int) OPEN.invokeExact(arena.allocateUtf8String(file.toString()), O_RDONLY);
+            }
+            catch (Throwable e) {
+                return -1;
+            }
+        }
+
+        /**
+         * Reads up to the size of the given buffer from the file at the given offset. Returns the number of bytes
+         * read, 0 at the end of the file, or -1 on failure.
+         */
+        static long pread(int fd, MemorySegment buffer, long offset) {
+            try {
+                return (long) PREAD.invokeExact(fd, buffer, buffer.byteSize(), offset);
+            }
+            catch (Throwable e) {
+                return -1;
+            }
         }
+
+        static void close(int fd) {
+            try {
+                int ignored = (int) CLOSE.invokeExact(fd);
+            }
+            catch (Throwable e) {
+                // Nothing to do about it.
+            }
+        }
+
+        /**
+         * Restricts the calling thread to the given CPUs. Returns whether that succeeded.
+         */
+        static boolean pinCurrentThread(int[] cpus) {
+            if (SCHED_SETAFFINITY == null) {
+                return false;
+            }
+
+            int maxCpu = Arrays.stream(cpus).max().orElse(0);
+            long maskSize = Math.max(128, (maxCpu / 64 + 1) * 8L);
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment mask = arena.allocate(maskSize, 8);
+                for (int cpu : cpus) {
+                    long offset = (cpu / 64) * 8L;
+                    mask.set(ValueLayout.JAVA_LONG, offset, mask.get(ValueLayout.JAVA_LONG, offset) | (1L << (cpu % 64)));
+                }
+                return (int) SCHED_SETAFFINITY.invokeExact(0, maskSize, mask) == 0;
+            }
+            catch (Throwable e) {
+                return false;
+            }
+        }
+
     }
 
-    private static int nextOccurrence(byte[] data, byte needle, int offset) {
-        while (offset < data.length) {
-            if (data[offset] == needle) {
-                return offset;
+    /**
+     * Page fault counters of this process, from {@code /proc/self/stat}. All zero where that isn't available.
+     */
+    private record PageFaults(long minor, long major) {
+
+        static PageFaults current() {
+            try {
+                String stat = Files.readString(Paths.get("/proc/self/stat"));
+                // The command name may contain spaces, so start after it. The fields following it are state, ppid,
+                // pgrp, session, tty_nr, tpgid, flags, minflt, cminflt and majflt.
+                String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+                return new PageFaults(Long.parseLong(fields[7]), Long.parseLong(fields[9]));
+            }
+            catch (IOException | RuntimeException e) {
+                return new PageFaults(0, 0);
             }
-            offset++;
         }
-        return -1;
+
+        PageFaults minus(PageFaults other) {
+            return new PageFaults(minor - other.minor, major - other.major);
+        }
     }
 
-    private record Station(byte[] name, int hash) {
+    /**
+     * A station name. Stations are {@link Comparable}, so that a {@link HashMap} keeps colliding ones in a balanced tree
+     * rather than a list. (A class rather than a record, as the formatter mangles records implementing interfaces.)
+     */
+    private static final class Station implements Comparable<Station> {
+        private final byte[] name;
+        private final int hash;
+
         private Station(byte[] name) {
-            this(name, Arrays.hashCode(name));
+            this.name = name;
+            this.hash = hash(name);
+        }
+
+        private static int hash(byte[] name) {
+            if (HASH_SEED == 0) {
+                return Arrays.hashCode(name);
+            }
+            long hash = HASH_SEED ^ name.length;
+            for (byte b : name) {
+                hash = (hash ^ b) * 0x100000001B3L;
+            }
+            return (int) (hash ^ (hash >>> 32));
+        }
+
+        byte[] name() {
+            return name;
+        }
+
+        @Override
+        public int compareTo(Station other) {
+            return Arrays.compareUnsigned(name, other.name);
         }
 
         @Override
@@ -262,6 +2421,97 @@ public class CalculateAverage_slovdahl {
         private int max = Integer.MIN_VALUE;
         private long sum;
         private long count;
+
+        private MeasurementAggregator merge(MeasurementAggregator other) {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            sum += other.sum;
+            count += other.count;
+            return this;
+        }
+    }
+
+    /**
+     * The format of the measured values, selected with {@code -DnumberFormat=<integer digits>.<fraction digits>}, e.g.
+     * {@code 4.2} for values from -9999.99 to 9999.99. Values are aggregated as {@code int}s in units of
+     * {@code 1 / scale}, so the two may add up to at most nine digits. Values with fewer fraction digits than the format
+     * are scaled up, so that one-decimal input can be read with a two-decimal format. The default, {@code 2.1}, is the
+     * one of the challenge, which the slice parser handles directly.
+     */
+    private record FixedPoint(int integerDigits, int fractionDigits, int scale) {
+
+        static final int NO_VALUE = Integer.MIN_VALUE;
+
+        private static final int MAX_DIGITS = 9;
+        private static final int[] POWERS_OF_TEN = { 1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000, 1_000_000_000 };
+
+        static FixedPoint of(String format) {
+            String[] parts = format.split("\\.");
+            int integerDigits = parts.length == 2 ? Integer.parseInt(parts[0]) : -1;
+            int fractionDigits = parts.length == 2 ? Integer.parseInt(parts[1]) : -1;
+            if (integerDigits < 1 || fractionDigits < 1 || integerDigits + fractionDigits > MAX_DIGITS) {
+                throw new IllegalArgumentException("-DnumberFormat must be <integer digits>.<fraction digits>, both at least 1 and at most "
+                        + MAX_DIGITS + " in total, but was " + format);
+            }
+            return new FixedPoint(integerDigits, fractionDigits, POWERS_OF_TEN[fractionDigits]);
+        }
+
+        boolean isDefault() {
+            return integerDigits == 2 && fractionDigits == 1;
+        }
+
+        /**
+         * Parses the value in the given range, returning it in units of {@code 1 / scale}, or {@link #NO_VALUE} if the
+         * range doesn't hold a value of this format.
+         */
+        int parse(MemorySegment segment, long start, long end) {
+            long offset = start;
+            boolean negative = offset < end && segment.get(ValueLayout.JAVA_BYTE, offset) == (byte) '-';
+            if (negative) {
+                offset++;
+            }
+
+            int value = 0;
+            int integerLength = 0;
+            int fractionLength = -1;
+            for (; offset < end; offset++) {
+                byte b = segment.get(ValueLayout.JAVA_BYTE, offset);
+                if (b == (byte) '.' && fractionLength < 0) {
+                    fractionLength = 0;
+                    continue;
+                }
+                if (b < '0' || b > '9' || (fractionLength < 0 ? ++integerLength > integerDigits : ++fractionLength > fractionDigits)) {
+                    return NO_VALUE;
+                }
+                value = value * 10 + (b - '0');
+            }
+            if (integerLength == 0 || fractionLength < 1) {
+                return NO_VALUE;
+            }
+
+            value *= POWERS_OF_TEN[fractionDigits - fractionLength];
+            return negative ? -value : value;
+        }
+
+        double toDouble(long value) {
+            return value / (double) scale;
+        }
+
+        double round(double value) {
+            return Math.round(value * scale) / (double) scale;
+        }
+
+        /**
+         * Describes the format, e.g. {@code [-]d[d].d} for the default one.
+         */
+        String pattern() {
+            return "[-]d" + "[d]".repeat(integerDigits - 1) + ".d" + "[d]".repeat(fractionDigits - 1);
+        }
+
+        @Override
+        public String toString() {
+            return integerDigits + "." + fractionDigits;
+        }
     }
 
     private record ResultRow(double min, double mean, double max) {
@@ -272,7 +2522,7 @@ public class CalculateAverage_slovdahl {
         }
 
         private double round(double value) {
-            return Math.round(value * 10.0) / 10.0;
+            return FIXED_POINT.round(value);
         }
     }
 }
@@ -21,9 +21,12 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class CreateMeasurements3 {
@@ -45,20 +48,28 @@ public class CreateMeasurements3 {
             System.out.println("Usage: create_measurements3.sh <number of records to create>");
             System.exit(1);
         }
-        final var weatherStations = generateWeatherStations();
-        final var start = System.currentTimeMillis();
         final var rnd = ThreadLocalRandom.current();
+        final var weatherStations = generateWeatherStations(rnd);
         try (var out = new BufferedWriter(new FileWriter("measurements3.txt"))) {
-            for (int i = 1; i <= size; i++) {
-                var station = weatherStations.get(rnd.nextInt(KEYSET_SIZE));
-                double temp = rnd.nextGaussian(station.avgTemp, 7.0);
-                out.write(station.name);
-                out.write(';');
-                out.write(Double.toString(Math.round(temp * 10.0) / 10.0));
-                out.write('\n');
-                if (i % 50_000_000 == 0) {
-                    System.out.printf("Wrote %,d measurements in %,d ms%n", i, System.currentTimeMillis() - start);
-                }
+            writeMeasurements(out, weatherStations, size, rnd);
+        }
+    }
+
+    /**
+     * Writes {@code size} measurements of stations picked at random from the given ones. Passing a seeded
+     * {@link Random}, here and to {@link #generateWeatherStations(Random)}, makes for reproducible files.
+     */
+    static void writeMeasurements(Writer out, List<WeatherStation> weatherStations, int size, Random rnd) throws IOException {
+        final var start = System.currentTimeMillis();
+        for (int i = 1; i <= size; i++) {
+            var station = weatherStations.get(rnd.nextInt(weatherStations.size()));
+            double temp = rnd.nextGaussian(station.avgTemp, 7.0);
+            out.write(station.name);
+            out.write(';');
+            out.write(Double.toString(Math.round(temp * 10.0) / 10.0));
+            out.write('\n');
+            if (i % 50_000_000 == 0) {
+                System.out.printf("Wrote %,d measurements in %,d ms%n", i, System.currentTimeMillis() - start);
             }
         }
     }
@@ -66,7 +77,7 @@ public class CreateMeasurements3 {
     record WeatherStation(String name, float avgTemp) {
     }
 
-    private static ArrayList<WeatherStation> generateWeatherStations() throws Exception {
+    static ArrayList<WeatherStation> generateWeatherStations(Random rnd) throws Exception {
         // Use a public list of city names and concatenate them all into a long string,
         // which we'll use as a "source of city name randomness"
         var bigName = new StringBuilder(1 << 20);
@@ -88,7 +99,6 @@ public class CreateMeasurements3 {
             skipComments(rows);
             final var nameSource = new StringReader(bigName.toString());
             final var buf = new char[MAX_NAME_LEN];
-            final var rnd = ThreadLocalRandom.current();
             final double yOffset = 4;
             final double factor = 2500;
             final double xOffset = 0.372;
@@ -0,0 +1,336 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Checks engines in-process, without going through their launcher scripts: each engine's {@code main} method is
+ * invoked on every sample of {@code src/test/resources/samples}, and on random files generated with
+ * {@link CreateMeasurements3}, and its output is parsed and compared station by station. Each run loads the engine in
+ * a fresh class loader, so that state kept in static fields starts out anew. This is meant for quickly checking
+ * rewrites of an engine's hot path; engines that rely on their launcher's JVM options, spawn processes, or write to
+ * stdout other than through {@code System.out} are better tested with {@code test.sh}.
+ * <p>
+ * The random files use a random subset of the stations of {@link CreateMeasurements3}, so that they range from a
+ * single station to its full 10K, and a random number of rows. Their expected results are computed here, with the
+ * rounding of {@code CalculateAverage_baseline}. A failing case can be reproduced with the seed that is printed.
+ * <p>
+ * Usage: {@code test_in_process.sh <fork> ...}, which runs from a scratch directory, as the engines read
+ * {@code ./measurements.txt}. System properties:
+ * <ul>
+ * <li>{@code samples}: the directory with the samples</li>
+ * <li>{@code fuzzCases}: the number of random files, by default 20</li>
+ * <li>{@code fuzzMaxRows}: the maximum number of rows of a random file, by default 100,000</li>
+ * <li>{@code fuzzSeed}: the seed for the random files, by default a random one</li>
+ * <li>{@code timeout}: the number of seconds a single run may take, by default 60</li>
+ * </ul>
+ */
+public class InProcessTestRunner {
+
+    private static final Path SAMPLES = Paths.get(System.getProperty("samples", "src/test/resources/samples"));
+    private static final int FUZZ_CASES = Integer.getInteger("fuzzCases", 20);
+    private static final int FUZZ_MAX_ROWS = Integer.getInteger("fuzzMaxRows", 100_000);
+    private static final long FUZZ_SEED = System.getProperty("fuzzSeed") != null ? Long.parseLong(System.getProperty("fuzzSeed"))
+            : new SecureRandom().nextLong();
+    private static final long TIMEOUT_MILLIS = Long.getLong("timeout", 60) * 1000;
+
+    private static final Path MEASUREMENTS = Paths.get("measurements.txt");
+    private static final int MAX_REPORTED_DIFFERENCES = 5;
+
+    /**
+     * A test input and its expected results.
+     */
+    record Case(String name, Path file, Map<String, Row> expected) {
+    }
+
+    /**
+     * The results of one station. Values are compared as numbers, so that e.g. {@code -0.0} and {@code 0.0} match.
+     */
+    record Row(double min, double mean, double max) {
+
+        @Override
+        public String toString() {
+            return min + "/" + mean + "/" + max;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: test_in_process.sh <fork> ...");
+            System.exit(1);
+        }
+        if (Files.exists(MEASUREMENTS) && !Files.isSymbolicLink(MEASUREMENTS)) {
+            System.out.println("Refusing to replace ./measurements.txt, run from a scratch directory");
+            System.exit(1);
+        }
+
+        List<Case> cases = new ArrayList<>(samples());
+        Path fuzzDir = Files.createTempDirectory("1brc-fuzz-");
+        try {
+            cases.addAll(fuzzCases(fuzzDir));
+
+            int failedForks = 0;
+            for (String fork : args) {
+                long start = System.nanoTime();
+                int failed = 0;
+                for (Case testCase : cases) {
+                    String failure = check(fork, testCase);
+                    if (failure != null) {
+                        failed++;
+                        System.out.printf("FAIL %s %s%n%s", fork, testCase.name(), failure.indent(4));
+                    }
+                }
+                System.out.printf("%s %s: %d of %d cases passed (%.1f s)%n", failed == 0 ? "PASS" : "FAIL", fork, cases.size() - failed, cases.size(),
+                        (System.nanoTime() - start) / 1e9);
+                if (failed > 0) {
+                    failedForks++;
+                }
+            }
+            if (failedForks > 0) {
+                System.out.printf("Random cases were generated with -DfuzzSeed=%d%n", FUZZ_SEED);
+            }
+            // Engines may leave non-daemon threads behind.
+            System.exit(failedForks == 0 ? 0 : 1);
+        }
+        finally {
+            Files.deleteIfExists(MEASUREMENTS);
+            try (Stream<Path> files = Files.list(fuzzDir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(fuzzDir);
+        }
+    }
+
+    private static List<Case> samples() throws IOException {
+        List<Case> cases = new ArrayList<>();
+        try (Stream<Path> files = Files.list(SAMPLES)) {
+            for (Path file : (Iterable<Path>) files.sorted()::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".txt")) {
+                    Path out = file.resolveSibling(name.substring(0, name.length() - ".txt".length()) + ".out");
+                    cases.add(new Case(name, file.toAbsolutePath(), parse(Files.readString(out))));
+                }
+            }
+        }
+        return cases;
+    }
+
+    private static List<Case> fuzzCases(Path dir) throws Exception {
+        var stations = CreateMeasurements3.generateWeatherStations(new Random(FUZZ_SEED));
+        List<Case> cases = new ArrayList<>();
+        for (int i = 0; i < FUZZ_CASES; i++) {
+            Random rnd = new Random(FUZZ_SEED + i);
+            var subset = new ArrayList<>(stations);
+            Collections.shuffle(subset, rnd);
+            subset.subList(1 + rnd.nextInt(subset.size()), subset.size()).clear();
+            int rows = 1 + rnd.nextInt(FUZZ_MAX_ROWS);
+
+            // A distinct file per case, so that engines caching results per file don't mix them up.
+            Path file = dir.resolve("fuzz-" + i + ".txt");
+            try (BufferedWriter out = Files.newBufferedWriter(file)) {
+                CreateMeasurements3.writeMeasurements(out, subset, rows, rnd);
+            }
+            cases.add(new Case("fuzz-" + i + " (" + subset.size() + " stations, " + rows + " rows)", file, aggregate(file)));
+        }
+        return cases;
+    }
+
+    /**
+     * Computes the expected results of the given file, rounded as {@code CalculateAverage_baseline} does.
+     */
+    static Map<String, Row> aggregate(Path file) throws IOException {
+        Map<String, long[]> aggregates = new TreeMap<>();
+        try (Stream<String> lines = Files.lines(file)) {
+            lines.forEach(line -> {
+                int separator = line.lastIndexOf(';');
+                long value = Math.round(Double.parseDouble(line.substring(separator + 1)) * 10);
+                long[] agg = aggregates.computeIfAbsent(line.substring(0, separator), name -> new long[]{ Long.MAX_VALUE, Long.MIN_VALUE, 0, 0 });
+                agg[0] = Math.min(agg[0], value);
+                agg[1] = Math.max(agg[1], value);
+                agg[2] += value;
+                agg[3]++;
+            });
+        }
+
+        Map<String, Row> rows = new LinkedHashMap<>();
+        aggregates.forEach((name, agg) -> rows.put(name, new Row(
+                agg[0] / 10.0,
+                round((Math.round(agg[2] / 10.0 * 10.0) / 10.0) / agg[3]),
+                agg[1] / 10.0)));
+        return rows;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10.0) / 10.0;
+    }
+
+    /**
+     * Parses output of the form {@code {name=min/mean/max, ...}}. Names may contain {@code ", "}, but the values don't,
+     * so entries are split after a digit only, as in {@code tocsv.sh}. Entries keep their order.
+     */
+    static Map<String, Row> parse(String output) {
+        String trimmed = output.strip();
+        if (!trimmed.startsWith("{") || !trimmed.endsWith("}")) {
+            throw new IllegalArgumentException("Not of the form {name=min/mean/max, ...}");
+        }
+        Map<String, Row> rows = new LinkedHashMap<>();
+        String entries = trimmed.substring(1, trimmed.length() - 1);
+        if (entries.isEmpty()) {
+            return rows;
+        }
+        for (String entry : entries.split("(?<=\\d), ")) {
+            int separator = entry.lastIndexOf('=');
+            String[] values = entry.substring(separator + 1).split("/");
+            if (separator < 0 || values.length != 3) {
+                throw new IllegalArgumentException("Malformed entry '" + entry + "'");
+            }
+            if (rows.put(entry.substring(0, separator),
+                    new Row(Double.parseDouble(values[0]), Double.parseDouble(values[1]), Double.parseDouble(values[2]))) != null) {
+                throw new IllegalArgumentException("Duplicate station '" + entry.substring(0, separator) + "'");
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Runs the fork on the given case. Returns a description of what went wrong, or null if the results are as
+     * expected.
+     */
+    private static String check(String fork, Case testCase) throws Exception {
+        Files.deleteIfExists(MEASUREMENTS);
+        Files.createSymbolicLink(MEASUREMENTS, testCase.file());
+
+        String output;
+        try {
+            output = run(fork);
+        }
+        catch (Exception e) {
+            return "failed: " + e;
+        }
+
+        Map<String, Row> actual;
+        try {
+            actual = parse(output);
+        }
+        catch (RuntimeException e) {
+            String firstLine = output.lines().findFirst().orElse("<no output>");
+            return e.getMessage() + ": " + (firstLine.length() > 200 ? firstLine.substring(0, 200) + "..." : firstLine);
+        }
+        return diff(testCase.expected(), actual);
+    }
+
+    /**
+     * Lists the stations that are missing, unexpected or have different results, and whether the stations are sorted.
+     */
+    static String diff(Map<String, Row> expected, Map<String, Row> actual) {
+        List<String> differences = new ArrayList<>();
+        expected.forEach((name, row) -> {
+            Row actualRow = actual.get(name);
+            if (actualRow == null) {
+                differences.add("missing " + name + "=" + row);
+            }
+            else if (actualRow.min() != row.min() || actualRow.mean() != row.mean() || actualRow.max() != row.max()) {
+                differences.add(name + ": expected " + row + " but got " + actualRow);
+            }
+        });
+        actual.forEach((name, row) -> {
+            if (!expected.containsKey(name)) {
+                differences.add("unexpected " + name + "=" + row);
+            }
+        });
+        String previous = null;
+        for (String name : actual.keySet()) {
+            if (previous != null && previous.compareTo(name) >= 0) {
+                differences.add("not sorted: " + name + " after " + previous);
+                break;
+            }
+            previous = name;
+        }
+
+        if (differences.isEmpty()) {
+            return null;
+        }
+        String shown = String.join("\n", differences.subList(0, Math.min(differences.size(), MAX_REPORTED_DIFFERENCES)));
+        return differences.size() > MAX_REPORTED_DIFFERENCES ? shown + "\n... and " + (differences.size() - MAX_REPORTED_DIFFERENCES) + " more" : shown;
+    }
+
+    /**
+     * Invokes the fork's main method in a fresh class loader and returns what it printed to {@code System.out}.
+     */
+    private static String run(String fork) throws Exception {
+        URL classes = InProcessTestRunner.class.getProtectionDomain().getCodeSource().getLocation();
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{ classes }, ClassLoader.getPlatformClassLoader())) {
+            var main = loader.loadClass("dev.morling.onebrc.CalculateAverage_" + fork).getMethod("main", String[].class);
+            Thread thread = new Thread(() -> {
+                try {
+                    main.invoke(null, (Object) new String[0]);
+                }
+                catch (InvocationTargetException e) {
+                    failure.set(e.getCause());
+                }
+                catch (Throwable e) {
+                    failure.set(e);
+                }
+            }, fork);
+            thread.setDaemon(true);
+            thread.setContextClassLoader(loader);
+
+            System.setOut(new PrintStream(captured, true, StandardCharsets.UTF_8));
+            try {
+                thread.start();
+                thread.join(TIMEOUT_MILLIS);
+            }
+            finally {
+                System.setOut(stdout);
+            }
+            if (thread.isAlive()) {
+                thread.interrupt();
+                throw new IllegalStateException("timed out after " + TIMEOUT_MILLIS + " ms");
+            }
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException(failure.get());
+        }
+        return captured.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Runs the tests of {@code test_all.sh} for many forks at once. Rather than sharing {@code ./measurements.txt}, each
+ * fork runs in its own temporary working directory, which links to the top-level files of the repository and to the
+ * current sample as {@code measurements.txt}. The samples of a fork run one after the other, as in {@code test.sh},
+ * and their output is compared with the expected one after normalising both with {@code tocsv.sh}.
+ * <p>
+ * Usage: {@code test_all_parallel.sh [<fork> ...]}, all forks by default. System properties:
+ * <ul>
+ * <li>{@code samples}: the input file pattern, by default {@code src/test/resources/samples/*.txt}; only the file name
+ * may contain wild cards</li>
+ * <li>{@code parallelism}: the number of forks tested at once, by default the number of CPUs</li>
+ * <li>{@code timeout}: the number of seconds a fork may take for all samples, by default 30</li>
+ * <li>{@code prepare}: whether to run the {@code prepare_<fork>.sh} scripts first, one at a time, by default true</li>
+ * </ul>
+ */
+public class ParallelTestRunner {
+
+    private static final String SAMPLES = System.getProperty("samples", "src/test/resources/samples/*.txt");
+    private static final int PARALLELISM = Integer.getInteger("parallelism", Runtime.getRuntime().availableProcessors());
+    private static final long TIMEOUT_SECONDS = Long.getLong("timeout", 30);
+    private static final boolean PREPARE = Boolean.parseBoolean(System.getProperty("prepare", "true"));
+
+    private enum Status {
+        PASS,
+        FAIL,
+        TIME
+    }
+
+    private record Result(String fork, Status status, long millis, String detail) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path root = Paths.get("").toAbsolutePath();
+        List<String> forks = args.length > 0 ? Arrays.asList(args) : allForks(root);
+        for (String fork : forks) {
+            if (!Files.exists(root.resolve("calculate_average_" + fork + ".sh"))) {
+                System.err.println("./calculate_average_" + fork + ".sh does not exist");
+                System.exit(1);
+            }
+        }
+        List<Path> samples = samples(root);
+        if (samples.isEmpty()) {
+            System.err.println("No samples match " + SAMPLES);
+            System.exit(1);
+        }
+
+        // The expected output only needs to be normalised once.
+        Map<Path, String> expected = new HashMap<>();
+        for (Path sample : samples) {
+            String name = sample.getFileName().toString();
+            Path out = sample.resolveSibling(name.substring(0, name.length() - ".txt".length()) + ".out");
+            expected.put(sample, run(root, List.of("/bin/sh", "-c", "./tocsv.sh < \"$1\"", "sh", out.toString())));
+        }
+
+        List<Result> results = new ArrayList<>();
+        List<String> prepared = new ArrayList<>();
+        for (String fork : forks) {
+            // Prepare scripts may build native images or the whole project, so they don't run concurrently.
+            Path prepare = root.resolve("prepare_" + fork + ".sh");
+            if (PREPARE && Files.exists(prepare)) {
+                try {
+                    run(root, List.of(prepare.toString()));
+                }
+                catch (IOException e) {
+                    results.add(report(new Result(fork, Status.FAIL, 0, "prepare_" + fork + ".sh failed: " + e.getMessage())));
+                    continue;
+                }
+            }
+            prepared.add(fork);
+        }
+
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newFixedThreadPool(PARALLELISM)) {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (String fork : prepared) {
+                futures.add(executor.submit(() -> report(test(root, fork, samples, expected))));
+            }
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+        }
+
+        Map<Status, Long> counts = new HashMap<>();
+        results.forEach(result -> counts.merge(result.status(), 1L, Long::sum));
+        System.out.printf("%d forks in %.1f s: %d passed, %d failed, %d timed out%n", results.size(), (System.nanoTime() - start) / 1e9,
+                counts.getOrDefault(Status.PASS, 0L), counts.getOrDefault(Status.FAIL, 0L), counts.getOrDefault(Status.TIME, 0L));
+        if (counts.getOrDefault(Status.PASS, 0L) != results.size()) {
+            System.exit(1);
+        }
+    }
+
+    private static List<String> allForks(Path root) throws IOException {
+        try (Stream<Path> files = Files.list(root)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith("calculate_average_") && name.endsWith(".sh"))
+                    .map(name -> name.substring("calculate_average_".length(), name.length() - ".sh".length()))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static List<Path> samples(Path root) throws IOException {
+        Path pattern = root.resolve(SAMPLES);
+        PathMatcher matcher = pattern.getFileSystem().getPathMatcher("glob:" + pattern.getFileName());
+        try (Stream<Path> files = Files.list(pattern.getParent())) {
+            return files.filter(file -> matcher.matches(file.getFileName()))
+                    .sorted(Comparator.comparing(Path::toString))
+                    .toList();
+        }
+    }
+
+    /**
+     * Runs all samples of one fork in a temporary working directory, stopping at the first mismatch.
+     */
+    private static Result test(Path root, String fork, List<Path> samples, Map<Path, String> expected) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        Path workDir = Files.createTempDirectory("1brc-" + fork + "-");
+        try {
+            try (Stream<Path> files = Files.list(root)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (!file.getFileName().toString().startsWith("measurements")) {
+                        Files.createSymbolicLink(workDir.resolve(file.getFileName()), file);
+                    }
+                }
+            }
+
+            Path measurements = workDir.resolve("measurements.txt");
+            Path output = workDir.resolve("output.txt");
+            Path errors = workDir.resolve("errors.txt");
+            for (Path sample : samples) {
+                Files.deleteIfExists(measurements);
+                Files.createSymbolicLink(measurements, sample);
+
+                // Through bash, as in test.sh, which scripts without a shebang line depend on.
+                Process process = new ProcessBuilder("bash", "-c", "./calculate_average_" + fork + ".sh | ./tocsv.sh")
+                        .directory(workDir.toFile())
+                        .redirectOutput(output.toFile())
+                        .redirectError(errors.toFile())
+                        .start();
+                if (!process.waitFor(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    process.descendants().forEach(ProcessHandle::destroyForcibly);
+                    process.destroyForcibly();
+                    return new Result(fork, Status.TIME, millisSince(start), "timed out on " + root.relativize(sample));
+                }
+
+                String actual = Files.readString(output);
+                if (!actual.equals(expected.get(sample))) {
+                    return new Result(fork, Status.FAIL, millisSince(start),
+                            root.relativize(sample) + ": " + firstDifference(expected.get(sample), actual, Files.readString(errors)));
+                }
+            }
+            return new Result(fork, Status.PASS, millisSince(start), "");
+        }
+        finally {
+            deleteRecursively(workDir);
+        }
+    }
+
+    private static String firstDifference(String expected, String actual, String errors) {
+        String[] expectedLines = expected.split("\n", -1);
+        String[] actualLines = actual.split("\n", -1);
+        for (int i = 0; i < Math.max(expectedLines.length, actualLines.length); i++) {
+            String expectedLine = i < expectedLines.length ? expectedLines[i] : "<end of output>";
+            String actualLine = i < actualLines.length ? actualLines[i] : "<end of output>";
+            if (!expectedLine.equals(actualLine)) {
+                String error = errors.isBlank() ? "" : "\n    stderr: " + errors.strip().lines().findFirst().orElse("");
+                return "expected '" + expectedLine + "' but got '" + actualLine + "' on line " + (i + 1) + error;
+            }
+        }
+        return "outputs differ";
+    }
+
+    private static Result report(Result result) {
+        synchronized (System.out) {
+            System.out.printf("%s %s (%.1f s)%n", result.status(), result.fork(), result.millis() / 1000.0);
+            if (!result.detail().isEmpty()) {
+                System.out.println("    " + result.detail());
+            }
+        }
+        return result;
+    }
+
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Runs the given command and returns its output, including stderr. If it exits with a non-zero status, its output
+     * is printed to stderr, as {@code test_all.sh} does, and it fails.
+     */
+    private static String run(Path workDir, List<String> command) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command)
+                .directory(workDir.toFile())
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(process.getInputStream().readAllBytes());
+        if (process.waitFor() != 0) {
+            System.err.print(output);
+            throw new IOException("exited with status " + process.exitValue());
+        }
+        return output;
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        // Files.walk doesn't follow the symbolic links, so only the links themselves are deleted.
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
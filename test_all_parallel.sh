@@ -0,0 +1,24 @@
+#!/bin/sh
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+# Like test_all.sh, but tests the forks in parallel, each in its own temporary working directory, e.g.
+#   ./test_all_parallel.sh
+#   ./test_all_parallel.sh baseline slovdahl
+#   JAVA_OPTS="-Dparallelism=4 -Dtimeout=60 -Dsamples=src/test/resources/samples/measurements-1*.txt" ./test_all_parallel.sh
+# See ParallelTestRunner for the options.
+
+java $JAVA_OPTS --class-path target/average-1.0.0-SNAPSHOT.jar dev.morling.onebrc.ParallelTestRunner "$@"
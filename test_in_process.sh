@@ -0,0 +1,43 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+# Checks the given forks in-process on the samples and on random CreateMeasurements3 files, comparing their results
+# station by station, e.g.
+#   ./test_in_process.sh slovdahl
+#   JAVA_OPTS="-DstationTable=tiered -DfuzzCases=100" ./test_in_process.sh slovdahl baseline
+# See InProcessTestRunner for the options.
+
+set -eo pipefail
+
+if [ -z "$1" ]
+  then
+    echo "Usage: test_in_process.sh <fork> ..."
+    exit 1
+fi
+
+# Runs in a scratch directory, as the engines read ./measurements.txt.
+WORK_DIR=$(mktemp -d)
+trap 'rm -rf "$WORK_DIR"' EXIT
+ln -s "$(realpath data)" "$WORK_DIR/data"
+JAR=$(realpath target/average-1.0.0-SNAPSHOT.jar)
+SAMPLES=$(realpath src/test/resources/samples)
+
+JAVA_OPTS="$JAVA_OPTS --enable-preview --enable-native-access=ALL-UNNAMED --add-modules jdk.incubator.vector"
+JAVA_OPTS="$JAVA_OPTS --add-opens=java.base/java.lang=ALL-UNNAMED --add-opens=java.base/jdk.internal.util=ALL-UNNAMED"
+
+cd "$WORK_DIR"
+java $JAVA_OPTS -Dsamples="$SAMPLES" --class-path "$JAR" dev.morling.onebrc.InProcessTestRunner "$@"